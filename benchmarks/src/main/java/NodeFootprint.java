@@ -0,0 +1,49 @@
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+
+//measures how many heap bytes each tree layout spends per object it holds
+//run with: java -Djdk.attach.allowAttachSelf -cp target/benchmarks.jar NodeFootprint [count]
+//it prints the field layout JOL reads for each node class, then walks every
+//object reachable from a tree of count books and adds up their sizes; the
+//books themselves, their strings and the comparator are subtracted, so each
+//figure is what the tree's own nodes and arrays cost per book
+//it lives here rather than in ../src since it needs JOL on the class path
+class NodeFootprint {
+
+  // runs the measurement
+  public static void main(String[] args) {
+    int count = 100000;
+    if (args.length > 0) {
+      count = Integer.parseInt(args[0]);
+    }
+    List<Book> books = new ArrayList<Book>();
+    for (int i = 0; i < count; i += 1) {
+      books.add(new Book("Book " + i, "Author " + i, (int) (i * 2654435761L % count)));
+    }
+    System.out.println(ClassLayout.parseClass(AVLNode.class).toPrintable());
+    System.out.println(ClassLayout.parseClass(BTreeNode.class).toPrintable());
+    BooksByPrice order = new BooksByPrice();
+    ABST<Book> avl = new AVLLeaf<Book>(order);
+    BTree<Book> btree = new BTree<Book>(order);
+    for (Book book : books) {
+      avl = avl.insert(book);
+      btree = btree.insert(book);
+    }
+    System.out.println(count + " books, heap bytes per book");
+    System.out.printf("%-12s %6.1f%n", "AVL nodes", NodeFootprint.perBook(avl, books, order));
+    System.out.printf("%-12s %6.1f%n", "B-tree", NodeFootprint.perBook(btree, books, order));
+  }
+
+  // the bytes reachable from the tree but not from the books or the
+  // comparator, per book
+  // the totals are subtracted rather than the graphs, since a collection
+  // between two walks can move the objects the graphs are keyed by
+  static double perBook(Object tree, List<Book> books, Object order) {
+    long nodes = GraphLayout.parseInstance(tree).totalSize()
+        - GraphLayout.parseInstance(books.toArray()).totalSize()
+        - GraphLayout.parseInstance(order).totalSize();
+    return (double) nodes / books.size();
+  }
+}
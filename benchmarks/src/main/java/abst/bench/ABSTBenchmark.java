@@ -0,0 +1,178 @@
+package abst.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+//measures every ABST operation over tree sizes, input shapes, comparators and
+//engines
+//build and run with:
+//  mvn -B package -Dtester.jar=/path/to/tester.jar
+//  java -jar target/benchmarks.jar ABSTBenchmark -prof gc
+//-prof gc adds gc.alloc.rate.norm, the bytes allocated per operation, to the
+//time per operation of every cell; narrow the sweep with -p, as in
+//  java -jar target/benchmarks.jar ABSTBenchmark.present -p size=1000,10000 -p engine=avl
+//sizes run from 10^3 to 10^7; inputs are random, sorted, or duplicate-heavy
+//books, where titles, authors and prices repeat from a pool of 100 values
+//each; engines are the plain Leaf, as the baseline, AVLLeaf, and BucketLeaf,
+//which keeps equal objects in one node
+//the fixture is built once per cell, before anything is timed: the tree of the
+//books inserted in order, an equal copy of it, the tree the BulkLoader builds
+//from the same books, and the books to look up and insert, which the operations
+//cycle through, so insert and getRight time one call on the full tree, which
+//stays as it is since every tree is persistent
+//the plain engine degrades to a list on sorted and duplicate-heavy input,
+//where building the fixture is quadratic, so those cells fail in setup above
+//PLAIN_DEGENERATE_LIMIT and JMH moves on to the next one
+//to compare against another commit, check its sources out and build this
+//module over them:
+//  git worktree add /tmp/before <commit>
+//  mvn -B package -Dtester.jar=/path/to/tester.jar -Dabst.src=/tmp/before/src
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g", "-Xss64m" })
+@State(Scope.Benchmark)
+public class ABSTBenchmark {
+  static final int PLAIN_DEGENERATE_LIMIT = 10000;
+  static final int CYCLE_LIMIT = 1 << 16;
+
+  @Param({ "1000", "10000", "100000", "1000000", "10000000" })
+  public int size;
+
+  @Param({ "random", "sorted", "duplicates" })
+  public String shape;
+
+  @Param({ "BooksByTitle", "BooksByAuthor", "BooksByPrice" })
+  public String comparator;
+
+  @Param({ "avl", "bucket", "plain" })
+  public String engine;
+
+  Object tree;
+  Object copy;
+  Object loaded;
+  Object[] lookups;
+  Object[] inserts;
+  int cursor;
+
+  // builds the trees and the books to look up and insert for this cell
+  @Setup(Level.Trial)
+  public void setUp() {
+    if (this.engine.equals("plain") && !this.shape.equals("random")
+        && this.size > PLAIN_DEGENERATE_LIMIT) {
+      throw new IllegalStateException("The plain engine is quadratic to build on "
+          + this.shape + " input above " + PLAIN_DEGENERATE_LIMIT + " books");
+    }
+    Comparator<Object> order = Trees.comparator(this.comparator);
+    Object empty = Trees.empty(this.engine, order);
+    List<Object> books = ABSTBenchmark.books(this.size, this.shape, order, this.size);
+    this.tree = ABSTBenchmark.build(empty, books);
+    this.copy = ABSTBenchmark.build(empty, books);
+    List<Object> sorted = new ArrayList<Object>(books);
+    sorted.sort(order);
+    this.loaded = Trees.load(empty, sorted);
+    int cycle = Integer.highestOneBit(Math.min(this.size, CYCLE_LIMIT));
+    List<Object> lookups = new ArrayList<Object>(books);
+    Collections.shuffle(lookups, new Random(1));
+    this.lookups = lookups.subList(0, cycle).toArray();
+    this.inserts = ABSTBenchmark.books(cycle, this.shape, order, -this.size).toArray();
+  }
+
+  // n books of the given shape, in the order they are inserted
+  static List<Object> books(int n, String shape, Comparator<Object> order, long seed) {
+    Random random = new Random(seed);
+    List<Object> books = new ArrayList<Object>();
+    for (int i = 0; i < n; i += 1) {
+      int id = random.nextInt(Integer.MAX_VALUE);
+      if (shape.equals("duplicates")) {
+        id = random.nextInt(100);
+      }
+      books.add(Trees.book("Title " + id, "Author " + Integer.rotateLeft(id, 7), id));
+    }
+    if (shape.equals("sorted")) {
+      books.sort(order);
+    }
+    return books;
+  }
+
+  // the tree of the books inserted in order into the empty tree
+  static Object build(Object empty, List<Object> books) {
+    try {
+      Object tree = empty;
+      for (Object book : books) {
+        tree = (Object) Trees.INSERT.invokeExact(tree, book);
+      }
+      return tree;
+    }
+    catch (Throwable e) {
+      throw new IllegalStateException("Could not build the tree", e);
+    }
+  }
+
+  // the next position in the books to look up and insert, which both hold a
+  // power of two books
+  int next() {
+    this.cursor = (this.cursor + 1) & (this.lookups.length - 1);
+    return this.cursor;
+  }
+
+  // inserts one more book into the full tree
+  @Benchmark
+  public Object insert() throws Throwable {
+    return (Object) Trees.INSERT.invokeExact(this.tree, this.inserts[this.next()]);
+  }
+
+  // looks up one book of the tree
+  @Benchmark
+  public boolean present() throws Throwable {
+    return (boolean) Trees.PRESENT.invokeExact(this.tree, this.lookups[this.next()]);
+  }
+
+  // finds the first book of the tree
+  @Benchmark
+  public Object getLeftMost() throws Throwable {
+    return (Object) Trees.GET_LEFT_MOST.invokeExact(this.tree);
+  }
+
+  // removes the first book of the full tree
+  @Benchmark
+  public Object getRight() throws Throwable {
+    return (Object) Trees.GET_RIGHT.invokeExact(this.tree);
+  }
+
+  // lists every book of the tree in order
+  @Benchmark
+  public Object buildList() throws Throwable {
+    return (Object) Trees.BUILD_LIST.invokeExact(this.tree);
+  }
+
+  // compares the tree with its equal copy
+  @Benchmark
+  public boolean sameTree() throws Throwable {
+    return (boolean) Trees.SAME_TREE.invokeExact(this.tree, this.copy);
+  }
+
+  // compares the books of the tree with those of the bulk loaded tree, which has
+  // another shape
+  @Benchmark
+  public boolean sameData() throws Throwable {
+    return (boolean) Trees.SAME_DATA.invokeExact(this.tree, this.loaded);
+  }
+}
@@ -0,0 +1,111 @@
+package abst.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+//the trees of ../src, as seen from a named package
+//JMH will not generate a benchmark for a class in the default package, and the
+//trees live there, package-private, where no named package can name them, so
+//the benchmarks reach them through method handles looked up once, when this
+//class is loaded; a handle held in a static final field is a constant to the
+//JIT, which inlines through invokeExact as it would through a direct call, so
+//the benchmarks time the trees and not the reflection
+class Trees {
+  static final MethodHandle INSERT = Trees.handle("insert", Object.class, 1);
+  static final MethodHandle PRESENT = Trees.handle("present", boolean.class, 1);
+  static final MethodHandle GET_LEFT_MOST = Trees.handle("getLeftMost", Object.class, 0);
+  static final MethodHandle GET_RIGHT = Trees.handle("getRight", Object.class, 0);
+  static final MethodHandle BUILD_LIST = Trees.handle("buildList", Object.class, 0);
+  static final MethodHandle SAME_TREE = Trees.handle("sameTree", boolean.class, 1);
+  static final MethodHandle SAME_DATA = Trees.handle("sameData", boolean.class, 1);
+
+  // a new Book with the given title, author and price
+  static Object book(String title, String author, int price) {
+    return Trees.construct("Book", new Class<?>[] { String.class, String.class, int.class },
+        title, author, price);
+  }
+
+  // a new instance of the book comparator with the given class name
+  @SuppressWarnings("unchecked")
+  static Comparator<Object> comparator(String name) {
+    return (Comparator<Object>) Trees.construct(name, new Class<?>[0]);
+  }
+
+  // the empty tree of the given engine, plain, avl or bucket, ordered by the
+  // comparator
+  static Object empty(String engine, Comparator<Object> order) {
+    if (engine.equals("plain")) {
+      return Trees.construct("Leaf", new Class<?>[] { Comparator.class }, order);
+    }
+    else if (engine.equals("avl")) {
+      return Trees.construct("AVLLeaf", new Class<?>[] { Comparator.class }, order);
+    }
+    else if (engine.equals("bucket")) {
+      return Trees.construct("BucketLeaf", new Class<?>[] { Comparator.class }, order);
+    }
+    throw new IllegalArgumentException("No engine named " + engine);
+  }
+
+  // the tree the BulkLoader builds over the empty tree from the sorted objects
+  static Object load(Object empty, List<Object> sorted) {
+    Object loader = Trees.construct("BulkLoader", new Class<?>[] { Trees.type("Leaf") }, empty);
+    try {
+      Method fromSorted = Trees.type("BulkLoader").getDeclaredMethod("fromSorted", List.class);
+      fromSorted.setAccessible(true);
+      return fromSorted.invoke(loader, sorted);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not bulk load the tree", e);
+    }
+  }
+
+  // a handle on the ABST method of the given name that takes the given number of
+  // arguments, typed with Object for the tree and every argument, so the
+  // benchmarks can call it with invokeExact
+  static MethodHandle handle(String name, Class<?> returns, int arguments) {
+    for (Method method : Trees.type("ABST").getDeclaredMethods()) {
+      if (method.getName().equals(name) && method.getParameterCount() == arguments) {
+        method.setAccessible(true);
+        Class<?>[] types = new Class<?>[arguments + 1];
+        Arrays.fill(types, Object.class);
+        try {
+          return MethodHandles.lookup().unreflect(method)
+              .asType(MethodType.methodType(returns, types));
+        }
+        catch (IllegalAccessException e) {
+          throw new IllegalStateException("Could not reach ABST." + name, e);
+        }
+      }
+    }
+    throw new IllegalStateException("No method ABST." + name);
+  }
+
+  // a new instance of the named class, built by the constructor with the given
+  // parameter types
+  static Object construct(String owner, Class<?>[] parameters, Object... arguments) {
+    try {
+      Constructor<?> constructor = Trees.type(owner).getDeclaredConstructor(parameters);
+      constructor.setAccessible(true);
+      return constructor.newInstance(arguments);
+    }
+    catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Could not construct " + owner, e);
+    }
+  }
+
+  // the class of the given name in the default package
+  static Class<?> type(String name) {
+    try {
+      return Class.forName(name, true, Trees.class.getClassLoader());
+    }
+    catch (ClassNotFoundException e) {
+      throw new IllegalStateException("No class " + name + " in the tree sources", e);
+    }
+  }
+}
@@ -1,8 +1,20 @@
 import tester.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 // an abstract class to represent a binary search tree
-public abstract class ABST<T> {
+public abstract class ABST<T> implements Iterable<T> {
   Comparator<T> order;
 
   ABST(Comparator<T> order) {
@@ -33,8 +45,24 @@ public abstract class ABST<T> {
   // helper for sameTree
   abstract boolean sameTreeHelper(T data, ABST<T> left, ABST<T> right);
 
+  // how many objects does the root of this tree hold?
+  abstract int bucketSize();
+
   // do the two trees have the same data?
-  abstract boolean sameData(ABST<T> other);
+  // walks both trees in order side by side and stops at the first difference
+  boolean sameData(ABST<T> other) {
+    return this.sameObjects(this.iterator(), other.iterator());
+  }
+
+  // do the two traversals produce the same objects, in the same order?
+  boolean sameObjects(Iterator<T> these, Iterator<T> those) {
+    while (these.hasNext() && those.hasNext()) {
+      if (this.order.compare(these.next(), those.next()) != 0) {
+        return false;
+      }
+    }
+    return !these.hasNext() && !those.hasNext();
+  }
 
   // helper for sameData
   abstract boolean sameDataHelper(T leftMost, ABST<T> right);
@@ -43,7 +71,219 @@ public abstract class ABST<T> {
   abstract boolean sameLeaf(Leaf<T> leaf);
 
   // builds a sorted list of the objects in the trees
-  abstract IList<T> buildList();
+  // walks the tree from the largest object down, so each object is consed on once
+  IList<T> buildList() {
+    IList<T> result = new MtList<T>();
+    Iterator<T> objects = this.descendingIterator();
+    while (objects.hasNext()) {
+      result = new ConsList<T>(objects.next(), result);
+    }
+    return result;
+  }
+
+  // iterates over the objects in the BST from smallest to largest
+  public Iterator<T> iterator() {
+    return new ABSTIterator<T>(this, true);
+  }
+
+  // iterates over the objects in the BST from largest to smallest
+  Iterator<T> descendingIterator() {
+    return new ABSTIterator<T>(this, false);
+  }
+
+  // a splittable traversal of the objects in the BST from smallest to largest
+  public Spliterator<T> spliterator() {
+    return new ABSTSpliterator<T>(this);
+  }
+
+  // a stream of the objects in the BST from smallest to largest
+  Stream<T> stream() {
+    return StreamSupport.stream(this.spliterator(), false);
+  }
+
+  // iterates over the objects between lo and hi, inclusive, from smallest to largest
+  Iterator<T> rangeIterator(T lo, T hi) {
+    return new ABSTRangeIterator<T>(this, lo, hi);
+  }
+
+  // a stream of the objects between lo and hi, inclusive, from smallest to largest
+  Stream<T> rangeStream(T lo, T hi) {
+    return StreamSupport.stream(Spliterators.spliterator(this.rangeIterator(lo, hi),
+        this.countInRange(lo, hi), Spliterator.ORDERED | Spliterator.IMMUTABLE), false);
+  }
+
+  // the largest object that is not after the given one, or null if there is none
+  T floor(T object) {
+    return this.floorHelper(object, null);
+  }
+
+  // the smallest object that is not before the given one, or null if there is none
+  T ceiling(T object) {
+    return this.ceilingHelper(object, null);
+  }
+
+  // the largest object that comes before the given one, or null if there is none
+  T lower(T object) {
+    return this.lowerHelper(object, null);
+  }
+
+  // the smallest object that comes after the given one, or null if there is none
+  T higher(T object) {
+    return this.higherHelper(object, null);
+  }
+
+  // the objects of this BST and the other one; when both hold an equal object,
+  // the one from this BST is kept
+  ABST<T> union(ABST<T> other) {
+    return ForkJoinPool.commonPool().invoke(new UnionTask<T>(this.emptyLeaf(), this, other));
+  }
+
+  // the objects of this BST that compare equal to an object of the other one
+  ABST<T> intersection(ABST<T> other) {
+    return ForkJoinPool.commonPool()
+        .invoke(new IntersectionTask<T>(this.emptyLeaf(), this, other));
+  }
+
+  // the objects of this BST that compare equal to no object of the other one
+  ABST<T> difference(ABST<T> other) {
+    return ForkJoinPool.commonPool()
+        .invoke(new DifferenceTask<T>(this.emptyLeaf(), this, other));
+  }
+
+  // a mutable builder for inserting a batch of objects into this BST
+  TransientABST<T> asTransient() {
+    return new TransientABST<T>(this);
+  }
+
+  // what was removed from this BST and added to it to get the newer version
+  // subtrees the two versions share are skipped without being visited
+  TreeDiff<T> diff(ABST<T> newer) {
+    return new TreeDiff<T>(this, newer);
+  }
+
+  // which of the sorted objects are in this BST? bit i is set when the i-th is
+  // the batch is split at every node it reaches, so the path the objects share
+  // is walked once for all of them
+  BitSet presentAll(List<T> sorted) {
+    BitSet found = new BitSet(sorted.size());
+    this.presentAllHelper(sorted, 0, sorted.size(), found);
+    return found;
+  }
+
+  // inserts all the sorted objects at once
+  // the batch is split at every node it reaches, so each node on the paths the
+  // objects take is copied once per batch instead of once per object, and the
+  // objects that reach a leaf become a balanced subtree there
+  ABST<T> insertAll(List<T> sorted) {
+    return this.insertAllHelper(sorted, 0, sorted.size());
+  }
+
+  // the index of the first of the sorted objects from lo (inclusive) to hi
+  // (exclusive) that is not before the given one, or that is after it when
+  // after is set
+  int boundIn(List<T> sorted, int lo, int hi, T object, boolean after) {
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int comp = this.order.compare(sorted.get(mid), object);
+      if (comp < 0 || (after && comp == 0)) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // how many nodes are on the longest path from this tree down to a leaf?
+  abstract int height();
+
+  // how many objects are in the BST?
+  abstract int size();
+
+  // how many objects in the BST come before the given object?
+  abstract int rank(T object);
+
+  // how many objects in the BST come before or compare equal to the given object?
+  abstract int rankAtMost(T object);
+
+  // the object at the given index (from 0) of the BST in sorted order
+  abstract T select(int index);
+
+  // helper for floor
+  // best is the largest object not after the given one seen on the way down
+  abstract T floorHelper(T object, T best);
+
+  // helper for ceiling
+  // best is the smallest object not before the given one seen on the way down
+  abstract T ceilingHelper(T object, T best);
+
+  // helper for lower
+  // best is the largest object before the given one seen on the way down
+  abstract T lowerHelper(T object, T best);
+
+  // helper for higher
+  // best is the smallest object after the given one seen on the way down
+  abstract T higherHelper(T object, T best);
+
+  // the BST of the objects between lo and hi, inclusive
+  // subtrees entirely inside the range are shared, not copied
+  abstract ABST<T> subTree(T lo, T hi);
+
+  // splits the BST into the objects before the key and the objects after it,
+  // noting whether any object compares equal to the key
+  abstract Split<T> split(T key);
+
+  // the empty tree at the bottom of this BST
+  abstract Leaf<T> emptyLeaf();
+
+  // helper for presentAll
+  // sets the bits of the sorted objects from lo (inclusive) to hi (exclusive)
+  // that are in this BST
+  abstract void presentAllHelper(List<T> sorted, int lo, int hi, BitSet found);
+
+  // helper for insertAll
+  // inserts the sorted objects from lo (inclusive) to hi (exclusive)
+  abstract ABST<T> insertAllHelper(List<T> sorted, int lo, int hi);
+
+  // how many objects in the BST compare equal to the given object?
+  int count(T object) {
+    return this.rankAtMost(object) - this.rank(object);
+  }
+
+  // how many objects in the BST lie between lo and hi, inclusive?
+  int countInRange(T lo, T hi) {
+    if (this.order.compare(lo, hi) > 0) {
+      return 0;
+    }
+    else {
+      return this.rankAtMost(hi) - this.rank(lo);
+    }
+  }
+
+  // helper for rebalancing joins
+  // hangs the parent's data and the given right subtree below this taller left subtree
+  abstract ABST<T> joinRightOf(Node<T> parent, ABST<T> right);
+
+  // helper for rebalancing joins
+  // hangs the parent's data and the given left subtree below this taller right subtree
+  abstract ABST<T> joinLeftOf(Node<T> parent, ABST<T> left);
+
+  // rotates this right subtree, two levels taller than the given left subtree,
+  // up over the parent's data
+  abstract ABST<T> rotateLeftOf(Node<T> parent, ABST<T> left);
+
+  // rotates this left subtree, two levels taller than the given right subtree,
+  // up over the parent's data
+  abstract ABST<T> rotateRightOf(Node<T> parent, ABST<T> right);
+
+  // helper for rotateLeftOf
+  // this is the inner (left) subtree of the given right node and moves up to the top
+  abstract ABST<T> doubleRotateLeftOf(Node<T> parent, ABST<T> left, Node<T> right);
+
+  // helper for rotateRightOf
+  // this is the inner (right) subtree of the given left node and moves up to the top
+  abstract ABST<T> doubleRotateRightOf(Node<T> parent, Node<T> left, ABST<T> right);
 }
 
 //represents a leaf in a binary search tree
@@ -56,7 +296,12 @@ class Leaf<T> extends ABST<T> {
   // inserts the object into the proper branch of the tree
   // end of the tree, so return the tree with the object as its data
   ABST<T> insert(T object) {
-    return new Node<T>(this.order, object, this, this);
+    return this.build(object, this, this);
+  }
+
+  // builds a node of the kind this leaf grows into
+  Node<T> build(T data, ABST<T> left, ABST<T> right) {
+    return new Node<T>(this.order, data, left, right);
   }
 
   // is the object in the BST?
@@ -97,11 +342,6 @@ class Leaf<T> extends ABST<T> {
     return false;
   }
 
-  // do the two BSTs have the same data?
-  boolean sameData(ABST<T> other) {
-    return other.sameLeaf(this);
-  }
-
   // a helper for sameData
   // in this case we are checking to see if a node has the same data as a leaf
   boolean sameDataHelper(T leftMost, ABST<T> right) {
@@ -114,9 +354,140 @@ class Leaf<T> extends ABST<T> {
     return true;
   }
 
-  // creates a sorted list of the data in the BST
-  IList<T> buildList() {
-    return new MtList<T>();
+  // a leaf holds no objects
+  int bucketSize() {
+    return 0;
+  }
+
+  // a leaf has no nodes below it
+  int height() {
+    return 0;
+  }
+
+  // a leaf holds no objects
+  int size() {
+    return 0;
+  }
+
+  // nothing in a leaf comes before the object
+  int rank(T object) {
+    return 0;
+  }
+
+  // nothing in a leaf comes before the object
+  int rankAtMost(T object) {
+    return 0;
+  }
+
+  // throws an exception because the index is past the objects in the BST
+  T select(int index) {
+    throw new IndexOutOfBoundsException("No item at that index of the tree");
+  }
+
+  // helper for floor
+  // end of the search, so the best object seen is the answer
+  T floorHelper(T object, T best) {
+    return best;
+  }
+
+  // helper for ceiling
+  // end of the search, so the best object seen is the answer
+  T ceilingHelper(T object, T best) {
+    return best;
+  }
+
+  // helper for lower
+  // end of the search, so the best object seen is the answer
+  T lowerHelper(T object, T best) {
+    return best;
+  }
+
+  // helper for higher
+  // end of the search, so the best object seen is the answer
+  T higherHelper(T object, T best) {
+    return best;
+  }
+
+  // no objects of a leaf are in the range
+  ABST<T> subTree(T lo, T hi) {
+    return this;
+  }
+
+  // nothing to split, so both sides are empty
+  Split<T> split(T key) {
+    return new Split<T>(this, false, this);
+  }
+
+  // this leaf is the empty tree
+  Leaf<T> emptyLeaf() {
+    return this;
+  }
+
+  // none of the objects that reach a leaf are in the tree
+  void presentAllHelper(List<T> sorted, int lo, int hi, BitSet found) {
+    // no bits to set
+  }
+
+  // the objects that reach a leaf become a balanced subtree, rooted at the node
+  // built for the run of objects around the middle one
+  ABST<T> insertAllHelper(List<T> sorted, int lo, int hi) {
+    if (lo >= hi) {
+      return this;
+    }
+    int mid = (lo + hi) >>> 1;
+    int first = this.runStart(sorted, lo, mid);
+    int end = this.runEnd(sorted, mid, hi);
+    return this.buildRun(sorted, first, end, this.insertAllHelper(sorted, lo, first),
+        this.insertAllHelper(sorted, end, hi));
+  }
+
+  // the index of the first of the sorted objects from lo (inclusive) to hi
+  // (exclusive) that the node built for the middle one holds
+  // a plain node holds just the middle object
+  int runStart(List<T> sorted, int lo, int mid) {
+    return mid;
+  }
+
+  // the index after the last of the sorted objects from lo (inclusive) to hi
+  // (exclusive) that the node built for the middle one holds
+  int runEnd(List<T> sorted, int mid, int hi) {
+    return mid + 1;
+  }
+
+  // the node holding the sorted objects from first (inclusive) to end
+  // (exclusive), over subtrees holding the objects before and after them
+  ABST<T> buildRun(List<T> sorted, int first, int end, ABST<T> left, ABST<T> right) {
+    return this.build(sorted.get(first), left, right);
+  }
+
+  // a leaf is never the taller side of a join
+  ABST<T> joinRightOf(Node<T> parent, ABST<T> right) {
+    throw new RuntimeException("No join below an empty tree");
+  }
+
+  // a leaf is never the taller side of a join
+  ABST<T> joinLeftOf(Node<T> parent, ABST<T> left) {
+    throw new RuntimeException("No join below an empty tree");
+  }
+
+  // a leaf cannot be rotated
+  ABST<T> rotateLeftOf(Node<T> parent, ABST<T> left) {
+    throw new RuntimeException("No rotation of an empty tree");
+  }
+
+  // a leaf cannot be rotated
+  ABST<T> rotateRightOf(Node<T> parent, ABST<T> right) {
+    throw new RuntimeException("No rotation of an empty tree");
+  }
+
+  // a leaf cannot be rotated
+  ABST<T> doubleRotateLeftOf(Node<T> parent, ABST<T> left, Node<T> right) {
+    throw new RuntimeException("No rotation of an empty tree");
+  }
+
+  // a leaf cannot be rotated
+  ABST<T> doubleRotateRightOf(Node<T> parent, Node<T> left, ABST<T> right) {
+    throw new RuntimeException("No rotation of an empty tree");
   }
 }
 
@@ -125,41 +496,125 @@ class Node<T> extends ABST<T> {
   T data;
   ABST<T> left;
   ABST<T> right;
+  int height;
+  int size;
 
   Node(Comparator<T> order, T data, ABST<T> left, ABST<T> right) {
     super(order);
     this.data = data;
     this.left = left;
     this.right = right;
+    this.height = 1 + Math.max(left.height(), right.height());
+    this.size = left.size() + right.size() + 1;
+  }
+
+  // builds a node holding this node's data above the given subtrees
+  Node<T> with(ABST<T> left, ABST<T> right) {
+    return new Node<T>(this.order, this.data, left, right);
+  }
+
+  // how many objects does this node hold?
+  int bucketSize() {
+    return 1;
+  }
+
+  // the object at the given index (from 0) of those this node holds
+  T bucketItem(int index) {
+    return this.data;
+  }
+
+  // removes the first object this node holds; the left subtree is empty
+  // a node holds only its data, so only the right subtree remains
+  ABST<T> dropFirst() {
+    return this.right;
+  }
+
+  // builds a tree holding this node's data and the given subtrees
+  // a plain BST never rebalances, so this is just a new node
+  ABST<T> join(ABST<T> left, ABST<T> right) {
+    return this.with(left, right);
+  }
 
+  // room for a path down a tree of the given height
+  @SuppressWarnings("unchecked")
+  static <T> Node<T>[] path(int height) {
+    return (Node<T>[]) new Node<?>[height];
   }
 
   // inserts the object on either the right or left node of the BST
+  // a plain BST can be as deep as it is large, so this walks down in a loop,
+  // remembering the path and, one bit per level, which way it went; then it
+  // joins the copied path back together from the bottom up, so the stack never
+  // grows with the height; balanced nodes rebalance in join, and a bucket node
+  // keeps an equal object itself, so every kind of node inserts this way
   ABST<T> insert(T object) {
-    if (order.compare(this.data, object) > 0) {
-      return new Node<T>(this.order, this.data, this.left.insert(object), this.right);
+    Comparator<T> order = this.order;
+    Node<T>[] path = Node.path(this.height);
+    long[] lefts = new long[(this.height + 63) >>> 6];
+    int depth = 0;
+    ABST<T> tree = this;
+    ABST<T> result = null;
+    while (result == null && tree instanceof Node) {
+      Node<T> node = (Node<T>) tree;
+      int comp = order.compare(node.data, object);
+      if (comp == 0 && node instanceof BucketNode) {
+        result = ((BucketNode<T>) node).withAppended(object);
+      }
+      else {
+        path[depth] = node;
+        if (comp > 0) {
+          lefts[depth >>> 6] |= 1L << depth;
+          tree = node.left;
+        }
+        else {
+          tree = node.right;
+        }
+        depth += 1;
+      }
     }
-    else {
-      return new Node<T>(this.order, this.data, this.left, this.right.insert(object));
+    if (result == null) {
+      result = tree.insert(object);
     }
+    for (int i = depth - 1; i >= 0; i -= 1) {
+      if ((lefts[i >>> 6] & (1L << i)) != 0) {
+        result = path[i].join(result, path[i].right);
+      }
+      else {
+        result = path[i].join(path[i].left, result);
+      }
+    }
+    return result;
   }
 
   // checks if the object is in the BST
+  // walks down in a loop, comparing once per level
   boolean present(T object) {
-    if (order.compare(this.data, object) == 0) {
-      return true;
-    }
-    else if (order.compare(this.data, object) > 0) {
-      return this.left.present(object);
-    }
-    else {
-      return this.right.present(object);
+    Comparator<T> order = this.order;
+    ABST<T> tree = this;
+    while (tree instanceof Node) {
+      Node<T> node = (Node<T>) tree;
+      int comp = order.compare(node.data, object);
+      if (comp == 0) {
+        return true;
+      }
+      else if (comp > 0) {
+        tree = node.left;
+      }
+      else {
+        tree = node.right;
+      }
     }
+    return false;
   }
 
   // finds the left most object in a BST
+  // walks down the left spine in a loop
   T getLeftMost() {
-    return this.left.getLeftMostHelper(this.data);
+    Node<T> node = this;
+    while (node.left instanceof Node) {
+      node = (Node<T>) node.left;
+    }
+    return node.data;
   }
 
   // goes though the left of the BST until a leaf is found
@@ -168,8 +623,22 @@ class Node<T> extends ABST<T> {
   }
 
   // returns all but the leftmost item in the BST
+  // walks down the left spine in a loop, drops the first object of the node at
+  // its bottom, then joins the copied spine back together from the bottom up
   ABST<T> getRight() {
-    return this.left.getRightHelper(this.right, this.data);
+    Node<T>[] path = Node.path(this.height);
+    int depth = 0;
+    Node<T> node = this;
+    while (node.left instanceof Node) {
+      path[depth] = node;
+      depth += 1;
+      node = (Node<T>) node.left;
+    }
+    ABST<T> result = node.dropFirst();
+    for (int i = depth - 1; i >= 0; i -= 1) {
+      result = path[i].join(result, path[i].right);
+    }
+    return result;
   }
 
   // helper for getRight
@@ -178,8 +647,11 @@ class Node<T> extends ABST<T> {
   }
 
   // determines if this tree is the same (data & structure) as the other tree
+  // every object in a bucket compares equal to its data, so two roots hold the
+  // same objects when they hold as many of them
   boolean sameTree(ABST<T> other) {
-    return other.sameTreeHelper(this.data, this.left, this.right);
+    return other.bucketSize() == this.bucketSize()
+        && other.sameTreeHelper(this.data, this.left, this.right);
   }
 
   // helper for sameTree
@@ -188,15 +660,12 @@ class Node<T> extends ABST<T> {
         && this.right.sameTree(right);
   }
 
-  // do the two BSTs have the same set of data?
-  boolean sameData(ABST<T> other) {
-    return other.sameDataHelper(this.getLeftMost(), this.getRight());
-  }
-
   // helper for sameData
+  // is leftMost our first object, followed by exactly the data of right?
   boolean sameDataHelper(T leftMost, ABST<T> right) {
-    return (this.order.compare(this.getLeftMost(), leftMost) == 0)
-        && this.getRight().sameData(right);
+    Iterator<T> objects = this.iterator();
+    return (this.order.compare(objects.next(), leftMost) == 0)
+        && this.sameObjects(objects, right.iterator());
   }
 
   // is this node the same as that leaf?
@@ -204,9 +673,446 @@ class Node<T> extends ABST<T> {
     return false;
   }
 
-  // creates a list of data that is sorted
-  IList<T> buildList() {
-    return new ConsList<T>(this.getLeftMost(), this.getRight().buildList());
+  // the height is computed once, when the node is built
+  int height() {
+    return this.height;
+  }
+
+  // the size is computed once, when the node is built
+  int size() {
+    return this.size;
+  }
+
+  // counts the left subtree and this node whenever the data comes before the object
+  int rank(T object) {
+    if (this.order.compare(this.data, object) < 0) {
+      return this.left.size() + this.bucketSize() + this.right.rank(object);
+    }
+    else {
+      return this.left.rank(object);
+    }
+  }
+
+  // counts the left subtree and this node whenever the data is not after the object
+  int rankAtMost(T object) {
+    if (this.order.compare(this.data, object) <= 0) {
+      return this.left.size() + this.bucketSize() + this.right.rankAtMost(object);
+    }
+    else {
+      return this.left.rankAtMost(object);
+    }
+  }
+
+  // an equal object is the floor; otherwise go left of larger data and right of smaller
+  T floorHelper(T object, T best) {
+    int comp = this.order.compare(this.data, object);
+    if (comp == 0) {
+      return this.data;
+    }
+    else if (comp > 0) {
+      return this.left.floorHelper(object, best);
+    }
+    else {
+      return this.right.floorHelper(object, this.data);
+    }
+  }
+
+  // an equal object is the ceiling; otherwise go left of larger data and right of smaller
+  T ceilingHelper(T object, T best) {
+    int comp = this.order.compare(this.data, object);
+    if (comp == 0) {
+      return this.data;
+    }
+    else if (comp > 0) {
+      return this.left.ceilingHelper(object, this.data);
+    }
+    else {
+      return this.right.ceilingHelper(object, best);
+    }
+  }
+
+  // smaller data is a candidate, and anything smaller than the object may be to its right
+  T lowerHelper(T object, T best) {
+    if (this.order.compare(this.data, object) < 0) {
+      return this.right.lowerHelper(object, this.data);
+    }
+    else {
+      return this.left.lowerHelper(object, best);
+    }
+  }
+
+  // larger data is a candidate, and anything larger than the object may be to its left
+  T higherHelper(T object, T best) {
+    if (this.order.compare(this.data, object) > 0) {
+      return this.left.higherHelper(object, this.data);
+    }
+    else {
+      return this.right.higherHelper(object, best);
+    }
+  }
+
+  // drops this node and its left subtree when the data is below the range,
+  // and this node and its right subtree when the data is above it
+  ABST<T> subTree(T lo, T hi) {
+    if (this.order.compare(this.data, lo) < 0) {
+      return this.right.subTree(lo, hi);
+    }
+    else if (this.order.compare(this.data, hi) > 0) {
+      return this.left.subTree(lo, hi);
+    }
+    else {
+      return this.join(this.left.subTree(lo, hi), this.right.subTree(lo, hi));
+    }
+  }
+
+  // splits the side the key falls in and joins the other side back on
+  // equal objects may sit on either side of an equal node, so both sides are split
+  Split<T> split(T key) {
+    int comp = this.order.compare(this.data, key);
+    if (comp < 0) {
+      Split<T> split = this.right.split(key);
+      return new Split<T>(this.join(this.left, split.below), split.found, split.above);
+    }
+    else if (comp > 0) {
+      Split<T> split = this.left.split(key);
+      return new Split<T>(split.below, split.found, this.join(split.above, this.right));
+    }
+    else {
+      return new Split<T>(this.left.split(key).below, true, this.right.split(key).above);
+    }
+  }
+
+  // the leaves are at the bottom of every path, so follow the left one
+  Leaf<T> emptyLeaf() {
+    return this.left.emptyLeaf();
+  }
+
+  // the objects equal to the data are present; the ones before it can only be
+  // on the left and the ones after it only on the right
+  void presentAllHelper(List<T> sorted, int lo, int hi, BitSet found) {
+    if (lo >= hi) {
+      return;
+    }
+    int below = this.boundIn(sorted, lo, hi, this.data, false);
+    int above = below;
+    while (above < hi && this.order.compare(sorted.get(above), this.data) == 0) {
+      above += 1;
+    }
+    found.set(below, above);
+    this.left.presentAllHelper(sorted, lo, below, found);
+    this.right.presentAllHelper(sorted, above, hi, found);
+  }
+
+  // sends the objects before the data left and the rest right, as insert does,
+  // and joins the two new subtrees below a single copy of this node
+  ABST<T> insertAllHelper(List<T> sorted, int lo, int hi) {
+    if (lo >= hi) {
+      return this;
+    }
+    int below = this.boundIn(sorted, lo, hi, this.data, false);
+    int above = this.equalRunEnd(sorted, below, hi);
+    return this.withEqual(sorted, below, above).join(
+        this.left.insertAllHelper(sorted, lo, below),
+        this.right.insertAllHelper(sorted, above, hi));
+  }
+
+  // the end of the run of sorted objects from the given index on that this
+  // node keeps itself; a node keeps none, so they go right
+  int equalRunEnd(List<T> sorted, int from, int hi) {
+    return from;
+  }
+
+  // this node, also holding the sorted objects from lo (inclusive) to hi
+  // (exclusive), which are equal to its data
+  Node<T> withEqual(List<T> sorted, int lo, int hi) {
+    return this;
+  }
+
+  // uses the size of the left subtree to pick the side the index falls in
+  T select(int index) {
+    int leftSize = this.left.size();
+    if (index < leftSize) {
+      return this.left.select(index);
+    }
+    else if (index < leftSize + this.bucketSize()) {
+      return this.bucketItem(index - leftSize);
+    }
+    else {
+      return this.right.select(index - leftSize - this.bucketSize());
+    }
+  }
+
+  // joins the parent's data and right subtree into this node's right subtree,
+  // rotating left if that makes the right side too tall
+  ABST<T> joinRightOf(Node<T> parent, ABST<T> right) {
+    ABST<T> joined = parent.join(this.right, right);
+    if (joined.height() > this.left.height() + 1) {
+      return joined.rotateLeftOf(this, this.left);
+    }
+    else {
+      return this.with(this.left, joined);
+    }
+  }
+
+  // joins the parent's data and left subtree into this node's left subtree,
+  // rotating right if that makes the left side too tall
+  ABST<T> joinLeftOf(Node<T> parent, ABST<T> left) {
+    ABST<T> joined = parent.join(left, this.left);
+    if (joined.height() > this.right.height() + 1) {
+      return joined.rotateRightOf(this, this.right);
+    }
+    else {
+      return this.with(joined, this.right);
+    }
+  }
+
+  // a single rotation, or a double one when this node's inner (left) side is taller
+  ABST<T> rotateLeftOf(Node<T> parent, ABST<T> left) {
+    if (this.left.height() > this.right.height()) {
+      return this.left.doubleRotateLeftOf(parent, left, this);
+    }
+    else {
+      return this.with(parent.with(left, this.left), this.right);
+    }
+  }
+
+  // a single rotation, or a double one when this node's inner (right) side is taller
+  ABST<T> rotateRightOf(Node<T> parent, ABST<T> right) {
+    if (this.right.height() > this.left.height()) {
+      return this.right.doubleRotateRightOf(parent, this, right);
+    }
+    else {
+      return this.with(this.left, parent.with(this.right, right));
+    }
+  }
+
+  // this node becomes the top, with the parent on its left and the right node on its right
+  ABST<T> doubleRotateLeftOf(Node<T> parent, ABST<T> left, Node<T> right) {
+    return this.with(parent.with(left, this.left), right.with(this.right, right.right));
+  }
+
+  // this node becomes the top, with the left node on its left and the parent on its right
+  ABST<T> doubleRotateRightOf(Node<T> parent, Node<T> left, ABST<T> right) {
+    return this.with(left.with(left.left, this.left), parent.with(this.right, right));
+  }
+}
+
+//represents an empty self-balancing (AVL) binary search tree
+//inserting into it builds AVL nodes, so every tree grown from it stays balanced
+class AVLLeaf<T> extends Leaf<T> {
+
+  AVLLeaf(Comparator<T> order) {
+    super(order);
+  }
+
+  // builds a balanced node, so trees grown from this leaf stay balanced
+  Node<T> build(T data, ABST<T> left, ABST<T> right) {
+    return new AVLNode<T>(this.order, data, left, right);
+  }
+}
+
+//represents a node in a self-balancing (AVL) binary search tree
+//the heights of the two subtrees of every node differ by at most one, so
+//insert, present, getLeftMost and getRight only walk O(log n) nodes
+class AVLNode<T> extends Node<T> {
+
+  AVLNode(Comparator<T> order, T data, ABST<T> left, ABST<T> right) {
+    super(order, data, left, right);
+  }
+
+  // builds a balanced node holding this node's data above the given subtrees
+  Node<T> with(ABST<T> left, ABST<T> right) {
+    return new AVLNode<T>(this.order, this.data, left, right);
+  }
+
+  // builds a balanced tree holding this node's data and the given subtrees
+  // when one side is too tall the data is joined down into it and rotated back up
+  ABST<T> join(ABST<T> left, ABST<T> right) {
+    if (left.height() > right.height() + 1) {
+      return left.joinRightOf(this, right);
+    }
+    else if (right.height() > left.height() + 1) {
+      return right.joinLeftOf(this, left);
+    }
+    else {
+      return this.with(left, right);
+    }
+  }
+}
+
+//represents an empty self-balancing multiset binary search tree
+//all objects that compare equal share one node, so many equal objects
+//(such as all the books by one author) cannot stretch the tree into a chain
+class BucketLeaf<T> extends AVLLeaf<T> {
+
+  BucketLeaf(Comparator<T> order) {
+    super(order);
+  }
+
+  // builds a bucket node holding just the given data
+  Node<T> build(T data, ABST<T> left, ABST<T> right) {
+    return new BucketNode<T>(this.order, data, BucketNode.NONE, 0, 0, left, right);
+  }
+
+  // the run of objects equal to the middle one becomes a single bucket node,
+  // starting at the first of them
+  int runStart(List<T> sorted, int lo, int mid) {
+    return this.boundIn(sorted, lo, mid, sorted.get(mid), false);
+  }
+
+  // and ending after the last of them
+  int runEnd(List<T> sorted, int mid, int hi) {
+    return this.boundIn(sorted, mid + 1, hi, sorted.get(mid), true);
+  }
+
+  // the bucket holds the whole run; the subtrees on either side of a run may
+  // differ in height by more than one, so they are joined rather than hung
+  // straight off the bucket
+  ABST<T> buildRun(List<T> sorted, int first, int end, ABST<T> left, ABST<T> right) {
+    return this.build(sorted.get(first), this, this).withEqual(sorted, first + 1, end)
+        .join(left, right);
+  }
+}
+
+//represents a node in a self-balancing multiset binary search tree
+//the node holds its data followed by every later object that compares equal
+//to it, in the order they were inserted; those later objects are the slots
+//from (inclusive) to to (exclusive) of a BucketItems that versions of the
+//bucket share, so dropping the first object and appending one are O(1)
+//amortized rather than a copy of the bucket
+class BucketNode<T> extends AVLNode<T> {
+  static final BucketItems NONE = new BucketItems(new Object[0], 0);
+
+  BucketItems more;
+  int from;
+  int to;
+
+  BucketNode(Comparator<T> order, T data, BucketItems more, int from, int to, ABST<T> left,
+      ABST<T> right) {
+    super(order, data, left, right);
+    this.more = more;
+    this.from = from;
+    this.to = to;
+    this.size = left.size() + right.size() + 1 + to - from;
+  }
+
+  // a bucket node holding the data followed by the given equal objects
+  BucketNode(Comparator<T> order, T data, Object[] more, ABST<T> left, ABST<T> right) {
+    this(order, data, new BucketItems(more, more.length), 0, more.length, left, right);
+  }
+
+  // builds a bucket node holding this node's objects above the given subtrees
+  Node<T> with(ABST<T> left, ABST<T> right) {
+    return new BucketNode<T>(this.order, this.data, this.more, this.from, this.to, left,
+        right);
+  }
+
+  // a copy of this node with the equal object added to the end of its bucket
+  Node<T> withAppended(T object) {
+    BucketNode<T> copy = new BucketNode<T>(this.order, this.data, this.more, this.from,
+        this.to, this.left, this.right);
+    copy.add(object);
+    return copy;
+  }
+
+  // adds the equal object to the end of this node's bucket, in place
+  // only called on a node that no other version of the tree can see yet
+  void add(T object) {
+    BucketItems items = this.more.append(this.from, this.to, object);
+    if (items != this.more) {
+      this.to -= this.from;
+      this.from = 0;
+      this.more = items;
+    }
+    this.to += 1;
+    this.size += 1;
+  }
+
+  // the data and every equal object in the bucket
+  int bucketSize() {
+    return 1 + this.to - this.from;
+  }
+
+  // the data comes first, followed by the bucket in insertion order
+  @SuppressWarnings("unchecked")
+  T bucketItem(int index) {
+    if (index == 0) {
+      return this.data;
+    }
+    else {
+      return (T) this.more.items[this.from + index - 1];
+    }
+  }
+
+  // a bucket node keeps every object equal to its data
+  int equalRunEnd(List<T> sorted, int from, int hi) {
+    return this.boundIn(sorted, from, hi, this.data, true);
+  }
+
+  // the equal objects are added to the end of the bucket
+  Node<T> withEqual(List<T> sorted, int lo, int hi) {
+    if (lo >= hi) {
+      return this;
+    }
+    BucketNode<T> copy = new BucketNode<T>(this.order, this.data, this.more, this.from,
+        this.to, this.left, this.right);
+    for (int i = lo; i < hi; i += 1) {
+      copy.add(sorted.get(i));
+    }
+    return copy;
+  }
+
+  // the next object in the bucket takes the data's place, if there is one
+  ABST<T> dropFirst() {
+    if (this.from == this.to) {
+      return this.right;
+    }
+    else {
+      return new BucketNode<T>(this.order, this.bucketItem(1), this.more, this.from + 1,
+          this.to, this.left, this.right);
+    }
+  }
+}
+
+//the equal objects of bucket nodes, shared by the versions of a bucket
+//each version holds a run of slots; the slots up to used are filled and never
+//change again, so a version whose run ends at used can append in place, and
+//any other version copies its run into new, larger items first
+class BucketItems {
+  Object[] items;
+  int used;
+
+  BucketItems(Object[] items, int used) {
+    this.items = items;
+    this.used = used;
+  }
+
+  // the items holding the run from (inclusive) to to (exclusive) followed by the
+  // object: these items if no version has appended past to yet and there is
+  // room, or else new items holding the run from their first slot
+  synchronized BucketItems append(int from, int to, Object object) {
+    if (to == this.used && to < this.items.length) {
+      this.items[to] = object;
+      this.used += 1;
+      return this;
+    }
+    Object[] items = new Object[Math.max(4, 2 * (to - from + 1))];
+    System.arraycopy(this.items, from, items, 0, to - from);
+    items[to - from] = object;
+    return new BucketItems(items, to - from + 1);
+  }
+}
+
+//the result of splitting a binary search tree at a key
+class Split<T> {
+  ABST<T> below;
+  boolean found;
+  ABST<T> above;
+
+  Split(ABST<T> below, boolean found, ABST<T> above) {
+    this.below = below;
+    this.found = found;
+    this.above = above;
   }
 }
 
@@ -215,12 +1121,39 @@ class Book {
   String title;
   String author;
   int price;
+  long titleKey;
+  long authorKey;
 
+  // the sort keys are worked out once here, for the keyed comparators
   Book(String title, String author, int price) {
     this.title = title;
     this.author = author;
     this.price = price;
+    this.titleKey = Book.prefixKey(title);
+    this.authorKey = Book.prefixKey(author);
   }
+
+  // packs the first PREFIX_CHARS chars of the text into a long, 7 bits each
+  // a char of 127 or above is stored as 127 and ends the key, and missing
+  // chars are 0; so when one text comes before another its key is never
+  // larger, and when the keys differ they order the texts just as
+  // String.compareTo does; only equal keys need the texts compared
+  static long prefixKey(String text) {
+    long key = 0;
+    boolean ended = false;
+    for (int i = 0; i < PREFIX_CHARS; i += 1) {
+      int c = 0;
+      if (!ended && i < text.length()) {
+        c = Math.min(text.charAt(i), 127);
+        ended = c == 127;
+      }
+      key = (key << 7) | c;
+    }
+    return key;
+  }
+
+  // how many chars fit in a key, in 63 of its bits
+  static final int PREFIX_CHARS = 9;
 }
 
 //to order books by their titles alphabetically
@@ -247,17 +1180,51 @@ class BooksByAuthor implements Comparator<Book> {
 class BooksByPrice implements Comparator<Book> {
 
   // compares two books by their prices low to high
+  // Integer.compare, because subtracting prices overflows for prices far apart
   public int compare(Book o1, Book o2) {
-    return o1.price - o2.price;
+    return Integer.compare(o1.price, o2.price);
+  }
+}
+
+//to order books by their titles alphabetically, comparing prefix keys first
+//gives the same order as BooksByTitle, but compares whole titles only when
+//their first Book.PREFIX_CHARS chars tie; the result only tells the order, so
+//it is -1, 0 or 1 whenever the keys decide it
+class BooksByTitleKey implements Comparator<Book> {
+
+  // compares the title keys, then the titles when the keys are equal
+  public int compare(Book o1, Book o2) {
+    if (o1.titleKey != o2.titleKey) {
+      return Long.compare(o1.titleKey, o2.titleKey);
+    }
+    return o1.title.compareTo(o2.title);
+  }
+}
+
+//to order books by their authors alphabetically, comparing prefix keys first
+//gives the same order as BooksByAuthor; see BooksByTitleKey
+class BooksByAuthorKey implements Comparator<Book> {
+
+  // compares the author keys, then the authors when the keys are equal
+  public int compare(Book o1, Book o2) {
+    if (o1.authorKey != o2.authorKey) {
+      return Long.compare(o1.authorKey, o2.authorKey);
+    }
+    return o1.author.compareTo(o2.author);
   }
 }
 
 //interface to represent an arbitrary list of objects
-interface IList<T> {
+interface IList<T> extends Iterable<T> {
 }
 
 //a class to represent an empty list of objects
 class MtList<T> implements IList<T> {
+
+  // iterates over the objects in this list, first to last
+  public Iterator<T> iterator() {
+    return new IListIterator<T>(this);
+  }
 }
 
 //a class to represent a non-empty list of objects
@@ -269,6 +1236,36 @@ class ConsList<T> implements IList<T> {
     this.first = first;
     this.rest = rest;
   }
+
+  // iterates over the objects in this list, first to last
+  public Iterator<T> iterator() {
+    return new IListIterator<T>(this);
+  }
+}
+
+//an iterator over the objects of a list, first to last
+//it walks the list with a loop, so long lists do not overflow the stack
+class IListIterator<T> implements Iterator<T> {
+  IList<T> rest;
+
+  IListIterator(IList<T> list) {
+    this.rest = list;
+  }
+
+  // are there any objects left in the list?
+  public boolean hasNext() {
+    return this.rest instanceof ConsList;
+  }
+
+  // returns the next object of the list
+  public T next() {
+    if (!(this.rest instanceof ConsList)) {
+      throw new NoSuchElementException("No next item of an empty list");
+    }
+    ConsList<T> cons = (ConsList<T>) this.rest;
+    this.rest = cons.rest;
+    return cons.first;
+  }
 }
 
 class ExamplesBST {
@@ -421,6 +1418,85 @@ class ExamplesBST {
   Node<Book> priceHP4left63right2 = new Node<Book>(new BooksByPrice(), this.harryPotter4,
       this.priceHP6left3, this.priceHP2);
 
+  // ************
+  // examples for self-balancing (AVL) trees, by price
+  // ************
+  Leaf<Book> avlLeafPrices = new AVLLeaf<Book>(new BooksByPrice());
+  Node<Book> avlPriceHP3 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter3,
+      this.avlLeafPrices, this.avlLeafPrices);
+  Node<Book> avlPriceHP4 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter4,
+      this.avlLeafPrices, this.avlLeafPrices);
+  Node<Book> avlPriceHP7 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter7,
+      this.avlLeafPrices, this.avlLeafPrices);
+  Node<Book> avlPriceHP1 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter1,
+      this.avlLeafPrices, this.avlLeafPrices);
+  // the balanced result of inserting hp3, hp1 and hp4 (in any order)
+  Node<Book> avlPriceHP1left3right4 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter1,
+      this.avlPriceHP3, this.avlPriceHP4);
+  Node<Book> avlPriceHP4right7 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter4,
+      this.avlLeafPrices, this.avlPriceHP7);
+  Node<Book> avlPriceHP1left3right47 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter1,
+      this.avlPriceHP3, this.avlPriceHP4right7);
+  // the result of removing hp3 from avlPriceHP1left3right47
+  Node<Book> avlPriceHP4left1right7 = new AVLNode<Book>(new BooksByPrice(), this.harryPotter4,
+      this.avlPriceHP1, this.avlPriceHP7);
+
+  // ************
+  // examples for multiset trees with buckets of equal objects, by author
+  // ************
+  Leaf<Book> bucketLeafAuthors = new BucketLeaf<Book>(new BooksByAuthor());
+  // all four JK Rowling books share a single node
+  ABST<Book> bucketRowling = this.bucketLeafAuthors.insert(this.harryPotter3)
+      .insert(this.harryPotter4).insert(this.harryPotter6).insert(this.harryPotter7);
+  // every book, inserted in order
+  ABST<Book> bucketAll = this.bucketRowling.insert(this.harryPotter1).insert(this.harryPotter2)
+      .insert(this.harryPotter5);
+
+  // builds a price-ordered tree of n books with prices 0 to n - 1, inserted in ascending order
+  ABST<Book> sortedPrices(ABST<Book> empty, int n) {
+    ABST<Book> tree = empty;
+    for (int i = 0; i < n; i += 1) {
+      tree = tree.insert(new Book("Book " + i, "Author " + i, i));
+    }
+    return tree;
+  }
+
+  // builds a balanced price-ordered tree of the books priced at the multiples of step below n
+  ABST<Book> everyNthPrice(int step, int n) {
+    ABST<Book> tree = this.avlLeafPrices;
+    for (int i = 0; i < n; i += step) {
+      tree = tree.insert(new Book("Book " + i, "Author " + i, i));
+    }
+    return tree;
+  }
+
+  // builds a price-ordered tree of n books with prices 0 to n - 1, inserted in descending order
+  ABST<Book> descendingPrices(ABST<Book> empty, int n) {
+    ABST<Book> tree = empty;
+    for (int i = n - 1; i >= 0; i -= 1) {
+      tree = tree.insert(new Book("Book " + i, "Author " + i, i));
+    }
+    return tree;
+  }
+
+  // builds a price-ordered chain of n books priced 0 to n - 1, straight from
+  // nodes; leaning left puts the cheapest at the bottom, otherwise at the top
+  ABST<Book> chain(int n, boolean leanLeft) {
+    ABST<Book> tree = this.leafCompPrices;
+    for (int i = 0; i < n; i += 1) {
+      if (leanLeft) {
+        tree = new Node<Book>(new BooksByPrice(), new Book("Book " + i, "Author " + i, i), tree,
+            this.leafCompPrices);
+      }
+      else {
+        int price = n - 1 - i;
+        tree = new Node<Book>(new BooksByPrice(), new Book("Book " + price, "Author " + price,
+            price), this.leafCompPrices, tree);
+      }
+    }
+    return tree;
+  }
+
   // ************
   // list of book examples
   // ************
@@ -453,11 +1529,50 @@ class ExamplesBST {
         && t.checkExpect(new BooksByAuthor().compare(this.harryPotter1, this.harryPotter4), 1);
   }
 
+  // tests for BooksByTitleKey()
+  boolean testByTitleKey(Tester t) {
+    return t.checkExpect(new BooksByTitleKey().compare(this.harryPotter2, this.harryPotter4), -1)
+        && t.checkExpect(new BooksByTitleKey().compare(this.harryPotter1, this.harryPotter7), 0)
+        && t.checkExpect(new BooksByTitleKey().compare(this.harryPotter1, this.harryPotter2), 1)
+        && t.checkExpect(new BooksByTitleKey().compare(new Book("Order of the Phoenix", "", 0),
+            new Book("Order of the Pheonix", "", 0)), 10)
+        && t.checkExpect(new BooksByTitleKey().compare(new Book("Tale", "", 0),
+            new Book("Tale\u00e9", "", 0)), -1)
+        && t.checkExpect(new BooksByTitleKey().compare(new Book("Ta\u00e9", "", 0),
+            new Book("Ta\u00ff", "", 0)), -22);
+  }
+
+  // tests for BooksByAuthorKey()
+  boolean testByAuthorKey(Tester t) {
+    return t.checkExpect(new BooksByAuthorKey().compare(this.harryPotter2, this.harryPotter4),
+        -1)
+        && t.checkExpect(new BooksByAuthorKey().compare(this.harryPotter4, this.harryPotter7), 0)
+        && t.checkExpect(new BooksByAuthorKey().compare(this.harryPotter1, this.harryPotter4), 1)
+        && t.checkExpect(new AVLLeaf<Book>(new BooksByAuthorKey()).insert(this.harryPotter5)
+            .insert(this.harryPotter1).insert(this.harryPotter2).buildList(),
+            new AVLLeaf<Book>(new BooksByAuthor()).insert(this.harryPotter5)
+                .insert(this.harryPotter1).insert(this.harryPotter2).buildList());
+  }
+
+  // tests for Book.prefixKey
+  boolean testPrefixKey(Tester t) {
+    return t.checkExpect(Book.prefixKey(""), 0L)
+        && t.checkExpect(Book.prefixKey("A"), 65L << 56)
+        && t.checkExpect(Book.prefixKey("ABCDEFGHI"), Book.prefixKey("ABCDEFGHIJ"))
+        && t.checkExpect(Book.prefixKey("\u00e9") == Book.prefixKey("\u007f"), true)
+        && t.checkExpect(Book.prefixKey("\u00e9b") == Book.prefixKey("\u0100A"), true)
+        && t.checkExpect(Book.prefixKey("ABCDEFGHI") > 0, true);
+  }
+
   // tests for BooksByPrice()
   boolean testByPrice(Tester t) {
     return t.checkExpect(new BooksByPrice().compare(this.harryPotter3, this.harryPotter1), -1)
         && t.checkExpect(new BooksByPrice().compare(this.harryPotter1, this.harryPotter6), 0)
-        && t.checkExpect(new BooksByPrice().compare(this.harryPotter4, this.harryPotter6), 1);
+        && t.checkExpect(new BooksByPrice().compare(this.harryPotter4, this.harryPotter6), 1)
+        && t.checkExpect(new BooksByPrice().compare(new Book("", "", Integer.MIN_VALUE),
+            new Book("", "", 1)), -1)
+        && t.checkExpect(new BooksByPrice().compare(new Book("", "", Integer.MAX_VALUE),
+            new Book("", "", -1)), 1);
   }
 
   /*
@@ -562,6 +1677,18 @@ class ExamplesBST {
         && t.checkExpect(this.leafCompAuthors.sameData(this.alltitlesbutleft), false);
   }
 
+  // tests sameData on large trees built in different orders
+  boolean testSameDataLarge(Tester t) {
+    ABST<Book> balanced = this.sortedPrices(this.avlLeafPrices, 3000);
+    ABST<Book> chain = this.descendingPrices(this.leafCompPrices, 3000);
+    return t.checkExpect(balanced.sameData(chain), true)
+        && t.checkExpect(chain.sameData(balanced), true)
+        && t.checkExpect(balanced.sameData(chain.getRight()), false)
+        && t.checkExpect(balanced.getRight().sameData(chain), false)
+        && t.checkExpect(
+            balanced.sameData(chain.getRight().insert(new Book("Free", "Nobody", 1))), false);
+  }
+
   // tests sameDataHelper
   boolean testSameDataHelper(Tester t) {
     return t.checkExpect(
@@ -590,6 +1717,392 @@ class ExamplesBST {
         && t.checkExpect(this.titleHP3left6245right1.buildList(), this.hpListallbytitle);
   }
 
+  // tests height
+  boolean testHeight(Tester t) {
+    return t.checkExpect(this.leafCompTitles.height(), 0)
+        && t.checkExpect(this.titleHP1.height(), 1)
+        && t.checkExpect(this.titleHP3left6245right1.height(), 4)
+        && t.checkExpect(this.avlPriceHP1left3right47.height(), 3);
+  }
+
+  // tests insert on self-balancing trees
+  boolean testAVLInsert(Tester t) {
+    return t.checkExpect(this.avlLeafPrices.insert(this.harryPotter3), this.avlPriceHP3)
+        && t.checkExpect(this.avlLeafPrices.insert(this.harryPotter3).insert(this.harryPotter1)
+            .insert(this.harryPotter4), this.avlPriceHP1left3right4)
+        && t.checkExpect(this.avlLeafPrices.insert(this.harryPotter4).insert(this.harryPotter1)
+            .insert(this.harryPotter3), this.avlPriceHP1left3right4)
+        && t.checkExpect(this.avlLeafPrices.insert(this.harryPotter3).insert(this.harryPotter4)
+            .insert(this.harryPotter1), this.avlPriceHP1left3right4)
+        && t.checkExpect(this.avlLeafPrices.insert(this.harryPotter4).insert(this.harryPotter3)
+            .insert(this.harryPotter1), this.avlPriceHP1left3right4)
+        && t.checkExpect(this.sortedPrices(this.avlLeafPrices, 1023).height(), 10)
+        && t.checkExpect(this.sortedPrices(this.leafCompPrices, 100).height(), 100);
+  }
+
+  // tests present, getLeftMost and getRight on a large balanced tree
+  boolean testAVLLookups(Tester t) {
+    ABST<Book> tree = this.sortedPrices(this.avlLeafPrices, 5000);
+    return t.checkExpect(tree.present(new Book("", "", 4321)), true)
+        && t.checkExpect(tree.present(new Book("", "", 5000)), false)
+        && t.checkExpect(tree.getLeftMost().price, 0)
+        && t.checkExpect(tree.getRight().getLeftMost().price, 1)
+        && t.checkExpect(tree.getRight().height() <= 14, true);
+  }
+
+  // tests getRight on self-balancing trees
+  boolean testAVLGetRight(Tester t) {
+    return t.checkExpect(this.avlPriceHP1left3right47.getRight(), this.avlPriceHP4left1right7)
+        && t.checkExpect(this.avlPriceHP1left3right4.getRight(),
+            new AVLNode<Book>(new BooksByPrice(), this.harryPotter1, this.avlLeafPrices,
+                this.avlPriceHP4))
+        && t.checkExpect(this.avlPriceHP3.getRight(), this.avlLeafPrices);
+  }
+
+  // tests iterator and descendingIterator
+  boolean testIterator(Tester t) {
+    Iterator<Book> titles = this.titleHP3left6245right1.iterator();
+    Iterator<Book> reversed = this.priceHP4left6right2.descendingIterator();
+    return t.checkExpect(titles.next(), this.harryPotter2)
+        && t.checkExpect(titles.next(), this.harryPotter4)
+        && t.checkExpect(titles.hasNext(), true)
+        && t.checkExpect(reversed.next(), this.harryPotter2)
+        && t.checkExpect(reversed.next(), this.harryPotter4)
+        && t.checkExpect(reversed.next(), this.harryPotter6)
+        && t.checkExpect(reversed.hasNext(), false)
+        && t.checkExpect(this.leafCompTitles.iterator().hasNext(), false)
+        && t.checkException(new NoSuchElementException("No next item of a finished traversal"),
+            this.leafCompTitles.iterator(), "next");
+  }
+
+  // tests stream and spliterator
+  boolean testStream(Tester t) {
+    return t.checkExpect(this.titleHP3left6245right1.stream().toArray(),
+        new Object[] { this.harryPotter2, this.harryPotter4, this.harryPotter6, this.harryPotter5,
+            this.harryPotter3, this.harryPotter1 })
+        && t.checkExpect(this.leafCompAuthors.stream().count(), 0L)
+        && t.checkExpect(this.titleHP1.spliterator().trySplit(), null)
+        && t.checkExpect(this.titleHP6right5.spliterator().trySplit().estimateSize(), 1L)
+        && t.checkExpect(this.titleHP3left6245right1.spliterator().estimateSize(), 6L)
+        && t.checkExpect(this.exactSplits(this.sortedPrices(this.avlLeafPrices, 5000)), true)
+        && t.checkExpect(this.exactSplits(this.titleHP6right5), true)
+        && t.checkExpect(this.sortedPrices(this.avlLeafPrices, 5000).stream().parallel()
+            .mapToInt(b -> b.price).sum(), 4999 * 5000 / 2)
+        && t.checkExpect(this.sortedPrices(this.avlLeafPrices, 5000).stream().parallel()
+            .map(b -> b.price).collect(Collectors.toList()).get(1234), 1234)
+        && t.checkExpect(this.descendingPrices(this.leafCompPrices, 2000).stream().parallel()
+            .filter(b -> b.price % 2 == 0).count(), 1000L);
+  }
+
+  // do both halves of a split traversal of the tree report their exact sizes?
+  boolean exactSplits(ABST<Book> tree) {
+    Spliterator<Book> rest = tree.spliterator();
+    Spliterator<Book> prefix = rest.trySplit();
+    long prefixSize = prefix.estimateSize();
+    long restSize = rest.estimateSize();
+    return prefixSize + restSize == tree.size()
+        && StreamSupport.stream(prefix, false).count() == prefixSize
+        && StreamSupport.stream(rest, false).count() == restSize;
+  }
+
+  // tests buildList on trees too deep to rebuild with getRight
+  boolean testBuildListDeep(Tester t) {
+    return t.checkExpect(this.descendingPrices(this.leafCompPrices, 3).buildList(),
+        this.sortedPrices(this.avlLeafPrices, 3).buildList())
+        && t.checkExpect(this.descendingPrices(this.leafCompPrices, 2000).buildList(),
+            this.sortedPrices(this.avlLeafPrices, 2000).buildList());
+  }
+
+  // tests that insert, present, getLeftMost and getRight loop down chains far
+  // deeper than the stack could recurse
+  boolean testDeepChain(Tester t) {
+    ABST<Book> right = this.chain(200000, false);
+    ABST<Book> left = this.chain(200000, true);
+    return t.checkExpect(right.present(new Book("", "", 199999)), true)
+        && t.checkExpect(right.present(new Book("", "", 200000)), false)
+        && t.checkExpect(right.insert(new Book("", "", 200000)).present(
+            new Book("", "", 200000)), true)
+        && t.checkExpect(right.insert(new Book("", "", 200000)).height(), 200001)
+        && t.checkExpect(left.getLeftMost().price, 0)
+        && t.checkExpect(left.getRight().getLeftMost().price, 1)
+        && t.checkExpect(left.getRight().size(), 199999);
+  }
+
+  // tests size
+  boolean testSize(Tester t) {
+    return t.checkExpect(this.leafCompTitles.size(), 0)
+        && t.checkExpect(this.titleHP3left6245right1.size(), 6)
+        && t.checkExpect(this.titleHP3left6245right1.getRight().size(), 5)
+        && t.checkExpect(this.priceHP1left3right4.insert(this.harryPotter6).size(), 4)
+        && t.checkExpect(this.sortedPrices(this.avlLeafPrices, 777).size(), 777);
+  }
+
+  // tests rank and rankAtMost
+  boolean testRank(Tester t) {
+    return t.checkExpect(this.leafCompPrices.rank(this.harryPotter1), 0)
+        && t.checkExpect(this.titleHP3left6245right1.rank(this.harryPotter2), 0)
+        && t.checkExpect(this.titleHP3left6245right1.rank(this.harryPotter5), 3)
+        && t.checkExpect(this.titleHP3left6245right1.rank(this.harryPotter7), 5)
+        && t.checkExpect(this.priceHP1left33right4.rank(this.harryPotter1), 2)
+        && t.checkExpect(this.priceHP1left33right4.rankAtMost(this.harryPotter6), 3)
+        && t.checkExpect(this.priceHP1left33right4.rankAtMost(this.harryPotter3), 2)
+        && t.checkExpect(this.sortedPrices(this.avlLeafPrices, 1000)
+            .rank(new Book("", "", 600)), 600);
+  }
+
+  // tests select
+  boolean testSelect(Tester t) {
+    return t.checkExpect(this.titleHP3left6245right1.select(0), this.harryPotter2)
+        && t.checkExpect(this.titleHP3left6245right1.select(3), this.harryPotter5)
+        && t.checkExpect(this.titleHP3left6245right1.select(5), this.harryPotter1)
+        && t.checkExpect(this.sortedPrices(this.avlLeafPrices, 2000).select(999).price, 999)
+        && t.checkException(new IndexOutOfBoundsException("No item at that index of the tree"),
+            this.titleHP3left6245right1, "select", 6)
+        && t.checkException(new IndexOutOfBoundsException("No item at that index of the tree"),
+            this.leafCompTitles, "select", 0);
+  }
+
+  // tests countInRange
+  boolean testCountInRange(Tester t) {
+    ABST<Book> prices = this.sortedPrices(this.avlLeafPrices, 100);
+    return t.checkExpect(this.priceHP1left33right4.countInRange(this.harryPotter3,
+        this.harryPotter1), 3)
+        && t.checkExpect(this.priceHP1left33right4.countInRange(this.harryPotter4,
+            this.harryPotter1), 0)
+        && t.checkExpect(prices.countInRange(new Book("", "", 10), new Book("", "", 15)), 6)
+        && t.checkExpect(prices.countInRange(new Book("", "", -5), new Book("", "", 500)), 100)
+        && t.checkExpect(this.leafCompPrices.countInRange(this.harryPotter3,
+            this.harryPotter7), 0);
+  }
+
+  // tests floor, ceiling, lower and higher
+  boolean testNavigation(Tester t) {
+    ABST<Book> evens = new BulkLoader<Book>(this.avlLeafPrices).fromSorted(new Book[] {
+        new Book("", "", 0), new Book("", "", 2), new Book("", "", 4), new Book("", "", 6) });
+    return t.checkExpect(evens.floor(new Book("", "", 3)).price, 2)
+        && t.checkExpect(evens.floor(new Book("", "", 4)).price, 4)
+        && t.checkExpect(evens.floor(new Book("", "", -1)), null)
+        && t.checkExpect(evens.ceiling(new Book("", "", 3)).price, 4)
+        && t.checkExpect(evens.ceiling(new Book("", "", 4)).price, 4)
+        && t.checkExpect(evens.ceiling(new Book("", "", 7)), null)
+        && t.checkExpect(evens.lower(new Book("", "", 4)).price, 2)
+        && t.checkExpect(evens.lower(new Book("", "", 0)), null)
+        && t.checkExpect(evens.higher(new Book("", "", 4)).price, 6)
+        && t.checkExpect(evens.higher(new Book("", "", 6)), null)
+        && t.checkExpect(this.leafCompPrices.floor(this.harryPotter1), null)
+        && t.checkExpect(this.titleHP3left6245right1.higher(this.harryPotter6), this.harryPotter5);
+  }
+
+  // tests subTree
+  boolean testSubTree(Tester t) {
+    ABST<Book> prices = this.sortedPrices(this.avlLeafPrices, 1000);
+    ABST<Book> middle = prices.subTree(new Book("", "", 9), new Book("", "", 12));
+    return t.checkExpect(this.priceHP1left3right46.subTree(this.harryPotter1, this.harryPotter4),
+        new Node<Book>(new BooksByPrice(), this.harryPotter1, this.leafCompPrices,
+            this.priceHP4left6))
+        && t.checkExpect(this.priceHP1left3right46.subTree(this.harryPotter7,
+            this.harryPotter7), this.leafCompPrices)
+        && t.checkExpect(middle.size(), 4)
+        && t.checkExpect(middle.getLeftMost().price, 9)
+        && t.checkExpect(prices.subTree(new Book("", "", 1), new Book("", "", 998)).size(), 998)
+        && t.checkExpect(prices.subTree(new Book("", "", 1), new Book("", "", 998))
+            .height() <= 11, true);
+  }
+
+  // tests rangeIterator and rangeStream
+  boolean testRangeStream(Tester t) {
+    ABST<Book> prices = this.sortedPrices(this.avlLeafPrices, 1000);
+    return t.checkExpect(prices.rangeStream(new Book("", "", 9), new Book("", "", 12))
+        .mapToInt(b -> b.price).toArray(), new int[] { 9, 10, 11, 12 })
+        && t.checkExpect(this.priceHP1left33right4.rangeStream(this.harryPotter3,
+            this.harryPotter3).toArray(), new Object[] { this.harryPotter3, this.harryPotter3 })
+        && t.checkExpect(prices.rangeStream(new Book("", "", 12), new Book("", "", 9)).count(),
+            0L)
+        && t.checkExpect(prices.rangeIterator(new Book("", "", 999), new Book("", "", 2000))
+            .next().price, 999);
+  }
+
+  // tests split
+  boolean testSplit(Tester t) {
+    Split<Book> split = this.priceHP1left3right46.split(this.harryPotter1);
+    Split<Book> missing = this.priceHP1left3right46.split(this.harryPotter2);
+    return t.checkExpect(split.found, true)
+        && t.checkExpect(split.below, this.priceHP3)
+        && t.checkExpect(split.above, this.priceHP4)
+        && t.checkExpect(missing.found, false)
+        && t.checkExpect(missing.below, this.priceHP1left3right46)
+        && t.checkExpect(missing.above, this.leafCompPrices)
+        && t.checkExpect(this.leafCompPrices.split(this.harryPotter1),
+            new Split<Book>(this.leafCompPrices, false, this.leafCompPrices));
+  }
+
+  // tests union
+  boolean testUnion(Tester t) {
+    ABST<Book> evens = this.everyNthPrice(2, 20000);
+    ABST<Book> threes = this.everyNthPrice(3, 20000);
+    ABST<Book> union = evens.union(threes);
+    return t.checkExpect(this.priceHP3.union(this.leafCompPrices), this.priceHP3)
+        && t.checkExpect(this.leafCompPrices.union(this.priceHP3), this.priceHP3)
+        && t.checkExpect(this.priceHP1left3right4.union(this.priceHP6).size(), 3)
+        && t.checkExpect(this.priceHP1left3right4.union(this.priceHP2).size(), 4)
+        && t.checkExpect(union.size(), 10000 + 6667 - 3334)
+        && t.checkExpect(union.height() <= 16, true)
+        && t.checkExpect(union.sameData(threes.union(evens)), true);
+  }
+
+  // tests intersection
+  boolean testIntersection(Tester t) {
+    ABST<Book> evens = this.everyNthPrice(2, 20000);
+    ABST<Book> threes = this.everyNthPrice(3, 20000);
+    return t.checkExpect(this.priceHP1left3right4.intersection(this.priceHP6),
+        new Node<Book>(new BooksByPrice(), this.harryPotter1, this.leafCompPrices,
+            this.leafCompPrices))
+        && t.checkExpect(this.priceHP1left3right4.intersection(this.priceHP2),
+            this.leafCompPrices)
+        && t.checkExpect(evens.intersection(threes).sameData(this.everyNthPrice(6, 20000)),
+            true);
+  }
+
+  // tests difference
+  boolean testDifference(Tester t) {
+    ABST<Book> evens = this.everyNthPrice(2, 20000);
+    ABST<Book> threes = this.everyNthPrice(3, 20000);
+    return t.checkExpect(this.priceHP1left3right4.difference(this.priceHP6),
+        new Node<Book>(new BooksByPrice(), this.harryPotter4, this.priceHP3,
+            this.leafCompPrices))
+        && t.checkExpect(this.priceHP1left3right4.difference(this.leafCompPrices),
+            this.priceHP1left3right4)
+        && t.checkExpect(evens.difference(threes).size(), 10000 - 3334)
+        && t.checkExpect(evens.difference(threes).intersection(threes).size(), 0)
+        && t.checkExpect(evens.difference(evens).size(), 0);
+  }
+
+  // tests insert into buckets of equal objects
+  boolean testBucketInsert(Tester t) {
+    return t.checkExpect(this.bucketRowling.sameTree(
+        new BucketNode<Book>(new BooksByAuthor(), this.harryPotter3,
+            new Object[] { this.harryPotter4, this.harryPotter6, this.harryPotter7 },
+            this.bucketLeafAuthors, this.bucketLeafAuthors)), true)
+        && t.checkExpect(this.bucketRowling.buildList(), new ConsList<Book>(this.harryPotter3,
+            new ConsList<Book>(this.harryPotter4, new ConsList<Book>(this.harryPotter6,
+                new ConsList<Book>(this.harryPotter7, this.mt)))))
+        && t.checkExpect(this.bucketRowling.height(), 1)
+        && t.checkExpect(this.bucketRowling.size(), 4)
+        && t.checkExpect(this.bucketAll.height(), 3)
+        && t.checkExpect(this.bucketAll.size(), 7)
+        && t.checkExpect(this.bucketAll.present(this.harryPotter7), true);
+  }
+
+  // tests count, select and traversal order with buckets of equal objects
+  boolean testBucketQueries(Tester t) {
+    return t.checkExpect(this.bucketAll.count(this.harryPotter6), 4)
+        && t.checkExpect(this.bucketAll.count(this.harryPotter5), 1)
+        && t.checkExpect(this.authorHP4left2right56.count(this.harryPotter3), 2)
+        && t.checkExpect(this.bucketAll.rank(this.harryPotter1), 5)
+        && t.checkExpect(this.bucketAll.select(3), this.harryPotter6)
+        && t.checkExpect(this.bucketAll.buildList(), new ConsList<Book>(this.harryPotter2,
+            new ConsList<Book>(this.harryPotter3, new ConsList<Book>(this.harryPotter4,
+                new ConsList<Book>(this.harryPotter6, new ConsList<Book>(this.harryPotter7,
+                    new ConsList<Book>(this.harryPotter1, new ConsList<Book>(this.harryPotter5,
+                        this.mt))))))))
+        && t.checkExpect(this.bucketAll.rangeStream(this.harryPotter4, this.harryPotter4)
+            .toArray(), new Object[] { this.harryPotter3, this.harryPotter4,
+                this.harryPotter6, this.harryPotter7 })
+        && t.checkExpect(this.bucketAll.descendingIterator().next(), this.harryPotter5);
+  }
+
+  // tests getRight with buckets of equal objects
+  boolean testBucketGetRight(Tester t) {
+    return t.checkExpect(this.bucketRowling.getRight().sameTree(
+        new BucketNode<Book>(new BooksByAuthor(), this.harryPotter4,
+            new Object[] { this.harryPotter6, this.harryPotter7 }, this.bucketLeafAuthors,
+            this.bucketLeafAuthors)), true)
+        && t.checkExpect(this.bucketRowling.getRight().buildList(),
+            new ConsList<Book>(this.harryPotter4, new ConsList<Book>(this.harryPotter6,
+                new ConsList<Book>(this.harryPotter7, this.mt))))
+        && t.checkExpect(this.bucketLeafAuthors.insert(this.harryPotter5).getRight(),
+            this.bucketLeafAuthors)
+        && t.checkExpect(this.bucketAll.getRight().getLeftMost(), this.harryPotter3)
+        && t.checkExpect(this.bucketAll.getRight().getRight().getLeftMost(), this.harryPotter4)
+        && t.checkExpect(this.bucketRowling.size(), 4);
+  }
+
+  // tests that sameTree compares buckets, and that versions of a bucket share
+  // its objects as it fills and drains
+  boolean testBucketSharing(Tester t) {
+    Book hallows = new Book("Deathly Hallows", "JK Rowling", 20);
+    ABST<Book> three = this.bucketLeafAuthors.insert(this.harryPotter3)
+        .insert(this.harryPotter4).insert(this.harryPotter6);
+    ABST<Book> four = three.insert(this.harryPotter7);
+    ABST<Book> other = three.insert(hallows);
+    ABST<Book> drained = four.getRight().getRight();
+    return t.checkExpect(three.sameTree(four), false)
+        && t.checkExpect(four.sameTree(this.bucketRowling), true)
+        && t.checkExpect(three.sameTree(three.getRight()), false)
+        && t.checkExpect(((BucketNode<Book>) four).more == ((BucketNode<Book>) three).more,
+            true)
+        && t.checkExpect(((BucketNode<Book>) drained).more == ((BucketNode<Book>) four).more,
+            true)
+        && t.checkExpect(((BucketNode<Book>) other).more == ((BucketNode<Book>) four).more,
+            false)
+        && t.checkExpect(drained.buildList(), new ConsList<Book>(this.harryPotter6,
+            new ConsList<Book>(this.harryPotter7, this.mt)))
+        && t.checkExpect(other.buildList(), new ConsList<Book>(this.harryPotter3,
+            new ConsList<Book>(this.harryPotter4, new ConsList<Book>(this.harryPotter6,
+                new ConsList<Book>(hallows, this.mt)))))
+        && t.checkExpect(four.buildList(), this.bucketRowling.buildList())
+        && t.checkExpect(three.size(), 3);
+  }
+
+  // the books priced lo to hi - 1, in ascending order
+  List<Book> priceList(int lo, int hi) {
+    List<Book> books = new ArrayList<Book>();
+    for (int i = lo; i < hi; i += 1) {
+      books.add(new Book("Book " + i, "Author " + i, i));
+    }
+    return books;
+  }
+
+  // tests presentAll
+  boolean testPresentAll(Tester t) {
+    BitSet threes = this.everyNthPrice(3, 30000).presentAll(this.priceList(0, 30000));
+    return t.checkExpect(this.priceHP1left3right4.presentAll(Arrays.asList(this.harryPotter3,
+        this.harryPotter6, this.harryPotter2)).toString(), "{0, 1}")
+        && t.checkExpect(this.leafCompPrices.presentAll(Arrays.asList(this.harryPotter3))
+            .toString(), "{}")
+        && t.checkExpect(this.priceHP1left3right4.presentAll(this.priceList(0, 0)).toString(),
+            "{}")
+        && t.checkExpect(threes.cardinality(), 10000)
+        && t.checkExpect(threes.get(9999), true)
+        && t.checkExpect(threes.get(10000), false)
+        && t.checkExpect(this.bucketAll.presentAll(Arrays.asList(this.harryPotter2,
+            this.harryPotter7, new Book("", "Nobody", 0))).toString(), "{0, 1}");
+  }
+
+  // tests insertAll
+  boolean testInsertAll(Tester t) {
+    ABST<Book> thousand = this.everyNthPrice(1, 1000);
+    ABST<Book> more = thousand.insertAll(this.priceList(2000, 2011));
+    return t.checkExpect(this.priceHP1left3right4.insertAll(Arrays.asList(this.harryPotter6,
+        this.harryPotter2)), this.priceHP1left3right4.insert(this.harryPotter6)
+            .insert(this.harryPotter2))
+        && t.checkExpect(this.priceHP1left3right4.insertAll(this.priceList(0, 0)),
+            this.priceHP1left3right4)
+        && t.checkExpect(this.avlLeafPrices.insertAll(this.priceList(0, 4095)).height(), 12)
+        && t.checkExpect(this.avlLeafPrices.insertAll(this.priceList(0, 4095))
+            .sameData(this.sortedPrices(this.avlLeafPrices, 4095)), true)
+        && t.checkExpect(more.size(), 1011)
+        && t.checkExpect(more.height() <= 12, true)
+        && t.checkExpect(thousand.diff(more).opened < 60, true)
+        && t.checkExpect(this.bucketLeafAuthors.insertAll(Arrays.asList(this.harryPotter2,
+            this.harryPotter3, this.harryPotter4, this.harryPotter6, this.harryPotter7,
+            this.harryPotter1, this.harryPotter5)).buildList(), this.bucketAll.buildList())
+        && t.checkExpect(this.bucketRowling.insertAll(Arrays.asList(this.harryPotter4)).height(),
+            1)
+        && t.checkExpect(this.bucketRowling.insertAll(Arrays.asList(this.harryPotter4))
+            .count(this.harryPotter3), 5);
+  }
+
   // tests sameLeaf
   boolean testSameLeaf(Tester t) {
     return t.checkExpect(this.leafCompTitles.sameLeaf(this.leafCompAuthors), true)
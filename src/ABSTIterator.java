@@ -0,0 +1,243 @@
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+//an in-order iterator over the data in a binary search tree
+//it keeps the nodes still to be visited on a stack instead of rebuilding the
+//tree with getRight, so a full traversal is linear and allocates no nodes;
+//index counts the objects of the top node already visited
+class ABSTIterator<T> implements Iterator<T> {
+  ArrayDeque<Node<T>> stack;
+  boolean ascending;
+  int index;
+
+  ABSTIterator(ABST<T> tree, boolean ascending) {
+    this.stack = new ArrayDeque<Node<T>>();
+    this.ascending = ascending;
+    this.index = 0;
+    this.pushSpine(tree);
+  }
+
+  // pushes the nodes on the path to the first object of the given tree
+  void pushSpine(ABST<T> tree) {
+    while (tree instanceof Node) {
+      Node<T> node = (Node<T>) tree;
+      this.stack.push(node);
+      if (this.ascending) {
+        tree = node.left;
+      }
+      else {
+        tree = node.right;
+      }
+    }
+  }
+
+  // are there any objects left to visit?
+  public boolean hasNext() {
+    return !this.stack.isEmpty();
+  }
+
+  // returns the next object in order
+  public T next() {
+    if (this.stack.isEmpty()) {
+      throw new NoSuchElementException("No next item of a finished traversal");
+    }
+    Node<T> node = this.stack.peek();
+    T object;
+    if (this.ascending) {
+      object = node.bucketItem(this.index);
+    }
+    else {
+      object = node.bucketItem(node.bucketSize() - 1 - this.index);
+    }
+    this.index += 1;
+    if (this.index == node.bucketSize()) {
+      this.stack.pop();
+      this.index = 0;
+      if (this.ascending) {
+        this.pushSpine(node.right);
+      }
+      else {
+        this.pushSpine(node.left);
+      }
+    }
+    return object;
+  }
+}
+
+//an in-order iterator over the data of a binary search tree between lo and hi
+//subtrees entirely below lo are never pushed and the traversal stops at the
+//first object above hi, so visiting k objects costs O(log n + k);
+//index counts the objects of the top node already visited
+class ABSTRangeIterator<T> implements Iterator<T> {
+  ArrayDeque<Node<T>> stack;
+  int index;
+  Comparator<T> order;
+  T lo;
+  T hi;
+
+  ABSTRangeIterator(ABST<T> tree, T lo, T hi) {
+    this.stack = new ArrayDeque<Node<T>>();
+    this.index = 0;
+    this.order = tree.order;
+    this.lo = lo;
+    this.hi = hi;
+    this.pushSpine(tree);
+  }
+
+  // pushes the nodes on the path to the first object of the given tree that is
+  // not below lo, skipping the nodes below lo
+  void pushSpine(ABST<T> tree) {
+    while (tree instanceof Node) {
+      Node<T> node = (Node<T>) tree;
+      if (this.order.compare(node.data, this.lo) < 0) {
+        tree = node.right;
+      }
+      else {
+        this.stack.push(node);
+        tree = node.left;
+      }
+    }
+  }
+
+  // is there an object left that is not above hi?
+  public boolean hasNext() {
+    return !this.stack.isEmpty() && this.order.compare(this.stack.peek().data, this.hi) <= 0;
+  }
+
+  // returns the next object in the range
+  public T next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException("No next item of a finished traversal");
+    }
+    Node<T> node = this.stack.peek();
+    T object = node.bucketItem(this.index);
+    this.index += 1;
+    if (this.index == node.bucketSize()) {
+      this.stack.pop();
+      this.index = 0;
+      this.pushSpine(node.right);
+    }
+    return object;
+  }
+}
+
+//a splittable in-order traversal of a binary search tree, for streams
+//every node on the stack stands for its data followed by its right subtree,
+//except that when rightCut is set the bottom node stands for its data alone
+//nodes know the size of their subtrees, so every split knows its exact size;
+//index counts the objects of the top node already visited
+class ABSTSpliterator<T> implements Spliterator<T> {
+  ArrayDeque<Node<T>> stack;
+  int index;
+  boolean rightCut;
+  long remaining;
+  Comparator<T> order;
+
+  ABSTSpliterator(ABST<T> tree) {
+    this(new ArrayDeque<Node<T>>(), 0, false, tree.size(), tree.order);
+    this.pushSpine(tree);
+  }
+
+  ABSTSpliterator(ArrayDeque<Node<T>> stack, int index, boolean rightCut, long remaining,
+      Comparator<T> order) {
+    this.stack = stack;
+    this.index = index;
+    this.rightCut = rightCut;
+    this.remaining = remaining;
+    this.order = order;
+  }
+
+  // pushes the nodes on the path to the leftmost object of the given tree
+  void pushSpine(ABST<T> tree) {
+    while (tree instanceof Node) {
+      Node<T> node = (Node<T>) tree;
+      this.stack.push(node);
+      tree = node.left;
+    }
+  }
+
+  // hands the next object in order to the action, if there is one
+  public boolean tryAdvance(Consumer<? super T> action) {
+    if (this.stack.isEmpty()) {
+      return false;
+    }
+    Node<T> node = this.stack.peek();
+    T object = node.bucketItem(this.index);
+    this.index += 1;
+    if (this.index == node.bucketSize()) {
+      this.stack.pop();
+      this.index = 0;
+      if (!this.rightCut || !this.stack.isEmpty()) {
+        this.pushSpine(node.right);
+      }
+    }
+    this.remaining -= 1;
+    action.accept(object);
+    return true;
+  }
+
+  // hands every remaining object in order to the action
+  public void forEachRemaining(Consumer<? super T> action) {
+    while (this.tryAdvance(action)) {
+      // the action has already been applied
+    }
+  }
+
+  // splits off the smaller objects into a new spliterator
+  // the bottom node of the stack holds everything larger than the rest of the
+  // stack, so the rest of the stack becomes the prefix; a lone bottom node gives
+  // up its own objects and keeps its right subtree; the prefix takes over the
+  // objects of the top node already visited
+  public Spliterator<T> trySplit() {
+    Node<T> bottom = this.stack.peekLast();
+    if (this.stack.size() >= 2) {
+      this.stack.pollLast();
+      ArrayDeque<Node<T>> prefix = this.stack;
+      long kept = bottom.bucketSize();
+      if (!this.rightCut) {
+        kept += bottom.right.size();
+      }
+      this.stack = new ArrayDeque<Node<T>>();
+      this.stack.push(bottom);
+      long split = this.remaining - kept;
+      this.remaining = kept;
+      int visited = this.index;
+      this.index = 0;
+      return new ABSTSpliterator<T>(prefix, visited, false, split, this.order);
+    }
+    else if (bottom != null && !this.rightCut && bottom.right instanceof Node) {
+      ArrayDeque<Node<T>> prefix = this.stack;
+      this.stack = new ArrayDeque<Node<T>>();
+      this.pushSpine(bottom.right);
+      long split = bottom.bucketSize() - this.index;
+      this.remaining -= split;
+      int visited = this.index;
+      this.index = 0;
+      return new ABSTSpliterator<T>(prefix, visited, true, split, this.order);
+    }
+    else {
+      return null;
+    }
+  }
+
+  // the exact number of objects left
+  public long estimateSize() {
+    return this.remaining;
+  }
+
+  // the objects come out in the tree's order, the tree never changes, and
+  // every split knows its size
+  public int characteristics() {
+    return Spliterator.ORDERED | Spliterator.SORTED | Spliterator.IMMUTABLE
+        | Spliterator.SIZED | Spliterator.SUBSIZED;
+  }
+
+  // the objects are sorted by the tree's comparator
+  public Comparator<? super T> getComparator() {
+    return this.order;
+  }
+}
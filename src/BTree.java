@@ -0,0 +1,434 @@
+import tester.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+//a persistent B-tree: a search tree with up to MAX_ITEMS sorted objects per node
+//it offers the same operations as ABST, but keeps the comparator once per tree
+//and packs many objects into each node's array, so a lookup in a million-object
+//tree visits about 5 nodes instead of about 20 and each object costs about one
+//array slot instead of a whole Node; as in ABST, inserting returns a new tree
+//that shares every node off the insertion path with the old one, and an object
+//equal to one already in the tree goes after it
+class BTree<T> implements Iterable<T> {
+  // every node but the root holds between MIN_DEGREE - 1 and MAX_ITEMS objects
+  static final int MIN_DEGREE = 16;
+  static final int MAX_ITEMS = 2 * MIN_DEGREE - 1;
+
+  Comparator<T> order;
+  BTreeNode<T> root;
+  int size;
+  int height;
+
+  // an empty B-tree
+  BTree(Comparator<T> order) {
+    this(order, new BTreeNode<T>(new Object[0], null), 0, 1);
+  }
+
+  BTree(Comparator<T> order, BTreeNode<T> root, int size, int height) {
+    this.order = order;
+    this.root = root;
+    this.size = size;
+    this.height = height;
+  }
+
+  // inserts the object where it belongs, splitting full nodes on the way down
+  BTree<T> insert(T object) {
+    BTreeNode<T> root = this.root;
+    int height = this.height;
+    if (root.items.length == MAX_ITEMS) {
+      @SuppressWarnings("unchecked")
+      BTreeNode<T>[] children = (BTreeNode<T>[]) new BTreeNode<?>[] { root };
+      root = new BTreeNode<T>(new Object[0], children).splitChild(0);
+      height += 1;
+    }
+    return new BTree<T>(this.order, root.insert(object, this.order), this.size + 1, height);
+  }
+
+  // is the object in the B-tree?
+  boolean present(T object) {
+    return this.root.present(object, this.order);
+  }
+
+  // get the leftmost object contained in the B-tree
+  T getLeftMost() {
+    if (this.size == 0) {
+      throw new RuntimeException("No leftmost item of an empty tree");
+    }
+    BTreeNode<T> node = this.root;
+    while (!node.isLeaf()) {
+      node = node.children[0];
+    }
+    return node.item(0);
+  }
+
+  // returns all but the leftmost object in the B-tree
+  BTree<T> getRight() {
+    if (this.size == 0) {
+      throw new RuntimeException("No right of an empty tree");
+    }
+    BTreeNode<T> root = this.root.removeFirst();
+    int height = this.height;
+    if (root.items.length == 0 && !root.isLeaf()) {
+      root = root.children[0];
+      height -= 1;
+    }
+    return new BTree<T>(this.order, root, this.size - 1, height);
+  }
+
+  // how many objects are in the B-tree?
+  int size() {
+    return this.size;
+  }
+
+  // builds a sorted list of the objects in the B-tree
+  IList<T> buildList() {
+    return this.root.consAll(new MtList<T>());
+  }
+
+  // iterates over the objects in the B-tree from smallest to largest
+  public Iterator<T> iterator() {
+    return new BTreeIterator<T>(this);
+  }
+}
+
+//represents one node of a B-tree
+//items are sorted; an inner node has one more child than items, and every
+//object in children[i] lies between items[i - 1] and items[i]; nodes are never
+//changed after they are shared, so an update copies the arrays it touches
+class BTreeNode<T> {
+  Object[] items;
+  BTreeNode<T>[] children;
+
+  // children is null for a node at the bottom of the tree
+  BTreeNode(Object[] items, BTreeNode<T>[] children) {
+    this.items = items;
+    this.children = children;
+  }
+
+  // is this node at the bottom of the tree?
+  boolean isLeaf() {
+    return this.children == null;
+  }
+
+  // the object at the given index of this node
+  @SuppressWarnings("unchecked")
+  T item(int index) {
+    return (T) this.items[index];
+  }
+
+  // the index of the first item after the object, found by binary search
+  int upperBound(T object, Comparator<T> order) {
+    int lo = 0;
+    int hi = this.items.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (order.compare(this.item(mid), object) <= 0) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // is the object in this subtree?
+  // an equal item ends the search; otherwise only one child can hold the object
+  boolean present(T object, Comparator<T> order) {
+    BTreeNode<T> node = this;
+    while (true) {
+      int lo = 0;
+      int hi = node.items.length;
+      while (lo < hi) {
+        int mid = (lo + hi) >>> 1;
+        int comp = order.compare(node.item(mid), object);
+        if (comp == 0) {
+          return true;
+        }
+        else if (comp < 0) {
+          lo = mid + 1;
+        }
+        else {
+          hi = mid;
+        }
+      }
+      if (node.isLeaf()) {
+        return false;
+      }
+      node = node.children[lo];
+    }
+  }
+
+  // a copy of this inner node in which the full child at the given index is
+  // split in two around its middle item, which moves up into this node
+  BTreeNode<T> splitChild(int index) {
+    BTreeNode<T> child = this.children[index];
+    int mid = child.items.length / 2;
+    BTreeNode<T> left;
+    BTreeNode<T> right;
+    if (child.isLeaf()) {
+      left = new BTreeNode<T>(Arrays.copyOfRange(child.items, 0, mid), null);
+      right = new BTreeNode<T>(Arrays.copyOfRange(child.items, mid + 1, child.items.length),
+          null);
+    }
+    else {
+      left = new BTreeNode<T>(Arrays.copyOfRange(child.items, 0, mid),
+          Arrays.copyOfRange(child.children, 0, mid + 1));
+      right = new BTreeNode<T>(Arrays.copyOfRange(child.items, mid + 1, child.items.length),
+          Arrays.copyOfRange(child.children, mid + 1, child.children.length));
+    }
+    BTreeNode<T>[] children = BTreeNode.insertAt(this.children, index + 1, right);
+    children[index] = left;
+    return new BTreeNode<T>(BTreeNode.insertAt(this.items, index, child.items[mid]), children);
+  }
+
+  // inserts the object into this subtree, which is not full
+  // a full child is split before going down into it, so no split ever goes back up
+  BTreeNode<T> insert(T object, Comparator<T> order) {
+    int index = this.upperBound(object, order);
+    if (this.isLeaf()) {
+      return new BTreeNode<T>(BTreeNode.insertAt(this.items, index, object), null);
+    }
+    BTreeNode<T> node;
+    if (this.children[index].items.length == BTree.MAX_ITEMS) {
+      node = this.splitChild(index);
+      if (order.compare(node.item(index), object) <= 0) {
+        index += 1;
+      }
+    }
+    else {
+      node = new BTreeNode<T>(this.items, this.children.clone());
+    }
+    node.children[index] = node.children[index].insert(object, order);
+    return node;
+  }
+
+  // removes the first object of this subtree, which holds at least MIN_DEGREE
+  // objects unless it is the root; before going down, the first child is topped
+  // up from its sibling or merged with it, so no underflow ever goes back up
+  BTreeNode<T> removeFirst() {
+    if (this.isLeaf()) {
+      return new BTreeNode<T>(Arrays.copyOfRange(this.items, 1, this.items.length), null);
+    }
+    BTreeNode<T> first = this.children[0];
+    BTreeNode<T> second = this.children[1];
+    if (first.items.length >= BTree.MIN_DEGREE) {
+      BTreeNode<T>[] children = this.children.clone();
+      children[0] = first.removeFirst();
+      return new BTreeNode<T>(this.items, children);
+    }
+    else if (second.items.length >= BTree.MIN_DEGREE) {
+      BTreeNode<T>[] children = this.children.clone();
+      children[0] = first.borrowFrom(this.items[0], second).removeFirst();
+      children[1] = second.withoutFirst();
+      Object[] items = this.items.clone();
+      items[0] = second.items[0];
+      return new BTreeNode<T>(items, children);
+    }
+    else {
+      BTreeNode<T>[] children = Arrays.copyOfRange(this.children, 1, this.children.length);
+      children[0] = first.mergeWith(this.items[0], second).removeFirst();
+      return new BTreeNode<T>(Arrays.copyOfRange(this.items, 1, this.items.length), children);
+    }
+  }
+
+  // this node followed by the separator and the first child of the sibling
+  BTreeNode<T> borrowFrom(Object separator, BTreeNode<T> sibling) {
+    Object[] items = BTreeNode.insertAt(this.items, this.items.length, separator);
+    if (this.isLeaf()) {
+      return new BTreeNode<T>(items, null);
+    }
+    else {
+      return new BTreeNode<T>(items,
+          BTreeNode.insertAt(this.children, this.children.length, sibling.children[0]));
+    }
+  }
+
+  // this node without its first item and first child
+  BTreeNode<T> withoutFirst() {
+    Object[] items = Arrays.copyOfRange(this.items, 1, this.items.length);
+    if (this.isLeaf()) {
+      return new BTreeNode<T>(items, null);
+    }
+    else {
+      return new BTreeNode<T>(items, Arrays.copyOfRange(this.children, 1, this.children.length));
+    }
+  }
+
+  // one node holding this node, the separator and the sibling, in that order
+  BTreeNode<T> mergeWith(Object separator, BTreeNode<T> sibling) {
+    Object[] items = Arrays.copyOf(this.items, this.items.length + 1 + sibling.items.length);
+    items[this.items.length] = separator;
+    System.arraycopy(sibling.items, 0, items, this.items.length + 1, sibling.items.length);
+    if (this.isLeaf()) {
+      return new BTreeNode<T>(items, null);
+    }
+    BTreeNode<T>[] children = Arrays.copyOf(this.children,
+        this.children.length + sibling.children.length);
+    System.arraycopy(sibling.children, 0, children, this.children.length,
+        sibling.children.length);
+    return new BTreeNode<T>(items, children);
+  }
+
+  // conses the objects of this subtree, in order, onto the front of rest
+  // works from the last object back, so each object is consed on once
+  IList<T> consAll(IList<T> rest) {
+    for (int i = this.items.length - 1; i >= 0; i -= 1) {
+      if (!this.isLeaf()) {
+        rest = this.children[i + 1].consAll(rest);
+      }
+      rest = new ConsList<T>(this.item(i), rest);
+    }
+    if (this.isLeaf()) {
+      return rest;
+    }
+    else {
+      return this.children[0].consAll(rest);
+    }
+  }
+
+  // a copy of the array with the value inserted at the given index
+  static <E> E[] insertAt(E[] array, int index, E value) {
+    E[] longer = Arrays.copyOf(array, array.length + 1);
+    System.arraycopy(array, index, longer, index + 1, array.length - index);
+    longer[index] = value;
+    return longer;
+  }
+}
+
+//an in-order iterator over the objects of a B-tree
+//the stack holds the nodes on the path to the next object, and positions[d]
+//is the index of the next item to visit in the node at depth d
+class BTreeIterator<T> implements Iterator<T> {
+  ArrayDeque<BTreeNode<T>> stack;
+  int[] positions;
+
+  BTreeIterator(BTree<T> tree) {
+    this.stack = new ArrayDeque<BTreeNode<T>>();
+    this.positions = new int[tree.height];
+    this.pushSpine(tree.root);
+  }
+
+  // pushes the nodes on the path to the first object of the given subtree
+  void pushSpine(BTreeNode<T> node) {
+    while (true) {
+      this.positions[this.stack.size()] = 0;
+      this.stack.push(node);
+      if (node.isLeaf()) {
+        return;
+      }
+      node = node.children[0];
+    }
+  }
+
+  // are there any objects left to visit?
+  // pops the nodes whose items have all been visited
+  public boolean hasNext() {
+    while (!this.stack.isEmpty()
+        && this.positions[this.stack.size() - 1] == this.stack.peek().items.length) {
+      this.stack.pop();
+    }
+    return !this.stack.isEmpty();
+  }
+
+  // returns the next object in order
+  public T next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException("No next item of a finished traversal");
+    }
+    BTreeNode<T> node = this.stack.peek();
+    int index = this.positions[this.stack.size() - 1];
+    this.positions[this.stack.size() - 1] = index + 1;
+    if (!node.isLeaf()) {
+      this.pushSpine(node.children[index + 1]);
+    }
+    return node.item(index);
+  }
+}
+
+class ExamplesBTree {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  BTree<Book> empty = new BTree<Book>(new BooksByPrice());
+  BTree<Book> prices = this.empty.insert(this.fixtures.harryPotter1)
+      .insert(this.fixtures.harryPotter2).insert(this.fixtures.harryPotter3)
+      .insert(this.fixtures.harryPotter6);
+
+  // a B-tree of n books priced 0 to n - 1, inserted in the given stride through the prices
+  BTree<Book> books(int n, int stride) {
+    List<Book> books = this.fixtures.priceList(0, n);
+    BTree<Book> tree = this.empty;
+    for (int i = 0; i < n; i += 1) {
+      tree = tree.insert(books.get((int) ((long) i * stride % n)));
+    }
+    return tree;
+  }
+
+  // tests insert
+  boolean testInsert(Tester t) {
+    BTree<Book> sorted = this.books(10000, 1);
+    BTree<Book> scattered = this.books(10007, 4099);
+    return t.checkExpect(this.prices.root.items,
+        new Object[] { this.fixtures.harryPotter3, this.fixtures.harryPotter1,
+            this.fixtures.harryPotter6, this.fixtures.harryPotter2 })
+        && t.checkExpect(this.prices.size(), 4)
+        && t.checkExpect(this.prices.height, 1)
+        && t.checkExpect(sorted.size(), 10000)
+        && t.checkExpect(sorted.height <= 4, true)
+        && t.checkExpect(scattered.height <= 4, true)
+        && t.checkExpect(this.empty.size(), 0);
+  }
+
+  // tests present
+  boolean testPresent(Tester t) {
+    BTree<Book> scattered = this.books(10007, 4099);
+    return t.checkExpect(this.prices.present(this.fixtures.harryPotter6), true)
+        && t.checkExpect(this.prices.present(new Book("", "", 11)), false)
+        && t.checkExpect(this.empty.present(this.fixtures.harryPotter1), false)
+        && t.checkExpect(scattered.present(new Book("", "", 5000)), true)
+        && t.checkExpect(scattered.present(new Book("", "", 10007)), false);
+  }
+
+  // tests getLeftMost and getRight
+  boolean testGetRight(Tester t) {
+    BTree<Book> tree = this.books(5000, 1);
+    for (int i = 0; i < 4000; i += 1) {
+      tree = tree.getRight();
+    }
+    return t.checkExpect(this.prices.getLeftMost(), this.fixtures.harryPotter3)
+        && t.checkExpect(this.prices.getRight().getLeftMost(), this.fixtures.harryPotter1)
+        && t.checkExpect(this.prices.getRight().getRight().getLeftMost(),
+            this.fixtures.harryPotter6)
+        && t.checkExpect(tree.size(), 1000)
+        && t.checkExpect(tree.getLeftMost().price, 4000)
+        && t.checkExpect(tree.present(new Book("", "", 3999)), false)
+        && t.checkExpect(tree.present(new Book("", "", 4999)), true)
+        && t.checkException(new RuntimeException("No right of an empty tree"), this.empty,
+            "getRight")
+        && t.checkException(new RuntimeException("No leftmost item of an empty tree"),
+            this.empty, "getLeftMost");
+  }
+
+  // tests buildList and iterator
+  boolean testBuildList(Tester t) {
+    BTree<Book> scattered = this.books(3001, 1009);
+    Iterator<Book> books = scattered.iterator();
+    boolean inOrder = true;
+    for (int i = 0; i < 3001; i += 1) {
+      inOrder = inOrder && books.next().price == i;
+    }
+    return t.checkExpect(this.prices.buildList(),
+        new ConsList<Book>(this.fixtures.harryPotter3,
+            new ConsList<Book>(this.fixtures.harryPotter1,
+                new ConsList<Book>(this.fixtures.harryPotter6,
+                    new ConsList<Book>(this.fixtures.harryPotter2, new MtList<Book>())))))
+        && t.checkExpect(this.empty.buildList(), new MtList<Book>())
+        && t.checkExpect(inOrder, true)
+        && t.checkExpect(books.hasNext(), false)
+        && t.checkExpect(this.empty.iterator().hasNext(), false);
+  }
+}
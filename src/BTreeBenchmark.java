@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+//compares the B-tree with the balanced binary tree on the same books
+//run with: java BTreeBenchmark [count] [rounds]
+//each round inserts every book in a random order, looks every book up in
+//another random order, and builds the sorted list; the best time of all the
+//rounds is reported, so the first rounds serve as the JIT warmup
+class BTreeBenchmark {
+  // runs the benchmark
+  public static void main(String[] args) {
+    int count = 1000000;
+    int rounds = 5;
+    if (args.length > 0) {
+      count = Integer.parseInt(args[0]);
+    }
+    if (args.length > 1) {
+      rounds = Integer.parseInt(args[1]);
+    }
+    List<Book> books = new ArrayList<Book>();
+    for (int i = 0; i < count; i += 1) {
+      books.add(new Book("Book " + i, "Author " + (i % 1000), i));
+    }
+    List<Book> inserts = new ArrayList<Book>(books);
+    Collections.shuffle(inserts, new Random(1));
+    List<Book> lookups = new ArrayList<Book>(books);
+    Collections.shuffle(lookups, new Random(2));
+
+    long[] binary = new long[] { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+    long[] wide = new long[] { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+    for (int round = 0; round < rounds; round += 1) {
+      BTreeBenchmark.best(binary, BTreeBenchmark.runBinary(inserts, lookups));
+      BTreeBenchmark.best(wide, BTreeBenchmark.runWide(inserts, lookups));
+    }
+    System.out.println(count + " books, best of " + rounds + " rounds, in ms");
+    System.out.println("               insert    present   buildList");
+    BTreeBenchmark.report("AVL nodes", binary);
+    BTreeBenchmark.report("B-tree", wide);
+  }
+
+  // times the three phases on a balanced binary tree
+  static long[] runBinary(List<Book> inserts, List<Book> lookups) {
+    long start = System.nanoTime();
+    ABST<Book> tree = new AVLLeaf<Book>(new BooksByPrice());
+    for (Book book : inserts) {
+      tree = tree.insert(book);
+    }
+    long inserted = System.nanoTime();
+    int found = 0;
+    for (Book book : lookups) {
+      if (tree.present(book)) {
+        found += 1;
+      }
+    }
+    long looked = System.nanoTime();
+    IList<Book> list = tree.buildList();
+    long built = System.nanoTime();
+    BTreeBenchmark.check(found, lookups.size(), list);
+    return new long[] { inserted - start, looked - inserted, built - looked };
+  }
+
+  // times the three phases on a B-tree
+  static long[] runWide(List<Book> inserts, List<Book> lookups) {
+    long start = System.nanoTime();
+    BTree<Book> tree = new BTree<Book>(new BooksByPrice());
+    for (Book book : inserts) {
+      tree = tree.insert(book);
+    }
+    long inserted = System.nanoTime();
+    int found = 0;
+    for (Book book : lookups) {
+      if (tree.present(book)) {
+        found += 1;
+      }
+    }
+    long looked = System.nanoTime();
+    IList<Book> list = tree.buildList();
+    long built = System.nanoTime();
+    BTreeBenchmark.check(found, lookups.size(), list);
+    return new long[] { inserted - start, looked - inserted, built - looked };
+  }
+
+  // makes sure the work was done, so none of it can be optimized away
+  static void check(int found, int expected, IList<Book> list) {
+    if (found != expected || !(list instanceof ConsList)) {
+      throw new RuntimeException("Benchmark lost some books");
+    }
+  }
+
+  // keeps the smaller of each pair of times in best
+  static void best(long[] best, long[] times) {
+    for (int i = 0; i < best.length; i += 1) {
+      best[i] = Math.min(best[i], times[i]);
+    }
+  }
+
+  // prints one row of times in milliseconds
+  static void report(String name, long[] times) {
+    System.out.printf("%-12s %9.1f %10.1f %11.1f%n", name, times[0] / 1e6, times[1] / 1e6,
+        times[2] / 1e6);
+  }
+}
@@ -0,0 +1,203 @@
+import tester.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.ToLongFunction;
+
+//a probabilistic set that answers "maybe present" or "definitely absent"
+//each object sets HASHES bits chosen from its 64-bit key hash by double
+//hashing; the filter is sized for an expected number of objects and a target
+//false positive rate, which give bits = -n ln(p) / ln(2)^2 and
+//hashes = bits / n * ln(2); bits are only ever set, with atomic ors, so
+//several versions of a tree and several threads can share one filter: a
+//version only ever sees extra bits, which can cause false positives but never
+//false negatives
+class BloomFilter<T> {
+  ToLongFunction<T> hash;
+  AtomicLongArray words;
+  long bits;
+  int hashes;
+
+  // a filter for about expected objects with about the given false positive rate
+  // the hash must give equal objects equal hashes, by the same notion of equal
+  // as the tree's comparator
+  BloomFilter(ToLongFunction<T> hash, int expected, double falsePositiveRate) {
+    if (expected <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+      throw new RuntimeException("No filter for that size or rate");
+    }
+    double ln2 = Math.log(2);
+    long bits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (ln2 * ln2));
+    int words = (int) Math.min(Integer.MAX_VALUE - 8, (bits + 63) / 64);
+    this.hash = hash;
+    this.words = new AtomicLongArray(words);
+    this.bits = 64L * words;
+    this.hashes = (int) Math.max(1, Math.round((double) this.bits / expected * ln2));
+  }
+
+  // sets the object's bits
+  void add(T object) {
+    long h = BloomFilter.mix(this.hash.applyAsLong(object));
+    long step = (h >>> 32) | 1;
+    for (int i = 0; i < this.hashes; i += 1) {
+      long bit = Math.floorMod(h + i * step, this.bits);
+      int word = (int) (bit >>> 6);
+      long mask = 1L << bit;
+      if ((this.words.get(word) & mask) == 0) {
+        this.words.getAndAccumulate(word, mask, (value, bits) -> value | bits);
+      }
+    }
+  }
+
+  // could the object have been added? false means it definitely was not
+  boolean mightContain(T object) {
+    long h = BloomFilter.mix(this.hash.applyAsLong(object));
+    long step = (h >>> 32) | 1;
+    for (int i = 0; i < this.hashes; i += 1) {
+      long bit = Math.floorMod(h + i * step, this.bits);
+      if ((this.words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the share of the bits that are set
+  double fillRatio() {
+    long set = 0;
+    for (int i = 0; i < this.words.length(); i += 1) {
+      set += Long.bitCount(this.words.get(i));
+    }
+    return (double) set / this.bits;
+  }
+
+  // the false positive rate the filter has now, from how full it is
+  double falsePositiveRate() {
+    return Math.pow(this.fillRatio(), this.hashes);
+  }
+
+  // spreads the bits of a weak hash, such as a String hashCode, over all 64 bits
+  static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+}
+
+//a binary search tree with a Bloom filter in front of present
+//a lookup the filter rules out never reaches the tree, so a miss usually costs
+//a few hashes instead of a descent with a comparison at every level; insert
+//adds to the filter as it goes, and every version shares the one filter;
+//getRight cannot clear bits, so removals only make false positives likelier
+class FilteredABST<T> {
+  ABST<T> tree;
+  BloomFilter<T> filter;
+
+  // the tree with a new filter holding its objects
+  FilteredABST(ABST<T> tree, ToLongFunction<T> hash, int expected,
+      double falsePositiveRate) {
+    this(tree, new BloomFilter<T>(hash, expected, falsePositiveRate));
+    for (T object : tree) {
+      this.filter.add(object);
+    }
+  }
+
+  FilteredABST(ABST<T> tree, BloomFilter<T> filter) {
+    this.tree = tree;
+    this.filter = filter;
+  }
+
+  // inserts the object into the tree and the filter
+  FilteredABST<T> insert(T object) {
+    this.filter.add(object);
+    return new FilteredABST<T>(this.tree.insert(object), this.filter);
+  }
+
+  // is the object in the tree? the tree is searched only if the filter allows it
+  boolean present(T object) {
+    return this.filter.mightContain(object) && this.tree.present(object);
+  }
+
+  // get the leftmost object contained in the tree
+  T getLeftMost() {
+    return this.tree.getLeftMost();
+  }
+
+  // returns all but the leftmost object in the tree; the filter keeps its bits
+  FilteredABST<T> getRight() {
+    return new FilteredABST<T>(this.tree.getRight(), this.filter);
+  }
+
+  // how many objects are in the tree?
+  int size() {
+    return this.tree.size();
+  }
+}
+
+class ExamplesBloomFilter {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  Leaf<Book> byTitle = new AVLLeaf<Book>(new BooksByTitle());
+
+  // a tree of n books titled Book 0 to Book n - 1, filtered for n books
+  FilteredABST<Book> titles(int n, double falsePositiveRate) {
+    FilteredABST<Book> tree = new FilteredABST<Book>(this.byTitle,
+        book -> book.title.hashCode(), n, falsePositiveRate);
+    for (Book book : this.fixtures.priceList(0, n)) {
+      tree = tree.insert(book);
+    }
+    return tree;
+  }
+
+  // tests sizing the filter
+  boolean testSizing(Tester t) {
+    BloomFilter<Book> filter = new BloomFilter<Book>(book -> book.price, 1000, 0.01);
+    return t.checkExpect(filter.bits, 9600L)
+        && t.checkExpect(filter.hashes, 7)
+        && t.checkExpect(filter.fillRatio(), 0.0)
+        && t.checkException(new RuntimeException("No filter for that size or rate"), this,
+            "badFilter");
+  }
+
+  // a filter that asks for an impossible false positive rate
+  BloomFilter<Book> badFilter() {
+    return new BloomFilter<Book>(book -> book.price, 1000, 1.0);
+  }
+
+  // tests present with the filter in front
+  boolean testPresent(Tester t) {
+    FilteredABST<Book> small = new FilteredABST<Book>(
+        this.byTitle.insert(this.fixtures.harryPotter1), book -> book.title.hashCode(), 10,
+        0.01).insert(this.fixtures.harryPotter2);
+    FilteredABST<Book> titles = this.titles(10000, 0.01);
+    int missing = 0;
+    int passed = 0;
+    for (int i = 0; i < 10000; i += 1) {
+      if (!titles.present(new Book("Book " + i, "", 0))) {
+        missing += 1;
+      }
+      if (titles.filter.mightContain(new Book("Other " + i, "", 0))) {
+        passed += 1;
+      }
+    }
+    return t.checkExpect(small.present(this.fixtures.harryPotter1), true)
+        && t.checkExpect(small.present(this.fixtures.harryPotter2), true)
+        && t.checkExpect(small.present(this.fixtures.harryPotter3), false)
+        && t.checkExpect(small.getRight().present(this.fixtures.harryPotter2), false)
+        && t.checkExpect(small.getRight().getLeftMost(), this.fixtures.harryPotter1)
+        && t.checkExpect(missing, 0)
+        && t.checkExpect(passed < 200, true)
+        && t.checkExpect(titles.filter.falsePositiveRate() < 0.02, true);
+  }
+
+  // tests that versions sharing a filter keep their own answers
+  boolean testVersions(Tester t) {
+    FilteredABST<Book> before = new FilteredABST<Book>(this.byTitle,
+        book -> book.title.hashCode(), 100, 0.01);
+    FilteredABST<Book> after = before.insert(this.fixtures.harryPotter3);
+    return t.checkExpect(before.present(this.fixtures.harryPotter3), false)
+        && t.checkExpect(after.present(this.fixtures.harryPotter3), true)
+        && t.checkExpect(before.filter == after.filter, true)
+        && t.checkExpect(after.size(), 1);
+  }
+}
@@ -0,0 +1,244 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+//a catalog of books indexed by title, by author and by price at once
+//the three indexes are balanced trees over the very same Book objects, so each
+//book is stored once and referenced three times; a catalog never changes, and
+//insert returns a new catalog with all three indexes updated, so whoever holds
+//a catalog sees every index at the same version, and publishing the new
+//catalog through one reference updates them together
+class BookCatalog {
+  ABST<Book> byTitle;
+  ABST<Book> byAuthor;
+  ABST<Book> byPrice;
+
+  // an empty catalog, whose title and author indexes compare prefix keys first
+  BookCatalog() {
+    this(new AVLLeaf<Book>(new BooksByTitleKey()), new AVLLeaf<Book>(new BooksByAuthorKey()),
+        new AVLLeaf<Book>(new BooksByPrice()));
+  }
+
+  BookCatalog(ABST<Book> byTitle, ABST<Book> byAuthor, ABST<Book> byPrice) {
+    this.byTitle = byTitle;
+    this.byAuthor = byAuthor;
+    this.byPrice = byPrice;
+  }
+
+  // the catalog with the book added to every index
+  BookCatalog insert(Book book) {
+    return new BookCatalog(this.byTitle.insert(book), this.byAuthor.insert(book),
+        this.byPrice.insert(book));
+  }
+
+  // the catalog with all the books added to every index, a batch per index
+  BookCatalog insertAll(Iterable<Book> books) {
+    return new BookCatalog(this.byTitle.asTransient().insertAll(books).persistent(),
+        this.byAuthor.asTransient().insertAll(books).persistent(),
+        this.byPrice.asTransient().insertAll(books).persistent());
+  }
+
+  // how many books are in the catalog?
+  int size() {
+    return this.byPrice.size();
+  }
+
+  // picks the index that narrows the query down to the fewest books
+  // every index knows its subtree sizes, so each estimate is an exact count
+  // found in O(log n)
+  QueryPlan plan(BookQuery query) {
+    QueryPlan best = new QueryPlan("price", this.byPrice,
+        new Book("", "", query.minPrice), new Book("", "", query.maxPrice));
+    if (query.minPrice > query.maxPrice) {
+      return best.withEstimate(0);
+    }
+    best = best.withEstimate(this.byPrice.countInRange(best.lo, best.hi));
+    if (query.title != null) {
+      Book key = new Book(query.title, "", 0);
+      int estimate = this.byTitle.countInRange(key, key);
+      if (estimate < best.estimate) {
+        best = new QueryPlan("title", this.byTitle, key, key).withEstimate(estimate);
+      }
+    }
+    if (query.author != null) {
+      Book key = new Book("", query.author, 0);
+      int estimate = this.byAuthor.countInRange(key, key);
+      if (estimate < best.estimate) {
+        best = new QueryPlan("author", this.byAuthor, key, key).withEstimate(estimate);
+      }
+    }
+    return best;
+  }
+
+  // the books matching every part of the query, in the order of the planned index
+  IList<Book> query(BookQuery query) {
+    QueryPlan plan = this.plan(query);
+    ArrayList<Book> found = new ArrayList<Book>();
+    if (plan.estimate > 0) {
+      Iterator<Book> books = plan.index.rangeIterator(plan.lo, plan.hi);
+      while (books.hasNext()) {
+        Book book = books.next();
+        if (query.matches(book)) {
+          found.add(book);
+        }
+      }
+    }
+    IList<Book> result = new MtList<Book>();
+    for (int i = found.size() - 1; i >= 0; i -= 1) {
+      result = new ConsList<Book>(found.get(i), result);
+    }
+    return result;
+  }
+}
+
+//a query on a book catalog: every part that is set must match
+//title and author are null when not asked for; prices are inclusive bounds
+class BookQuery {
+  String title;
+  String author;
+  int minPrice;
+  int maxPrice;
+
+  // the query every book matches
+  BookQuery() {
+    this(null, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+  }
+
+  BookQuery(String title, String author, int minPrice, int maxPrice) {
+    this.title = title;
+    this.author = author;
+    this.minPrice = minPrice;
+    this.maxPrice = maxPrice;
+  }
+
+  // this query, also asking for the given title
+  BookQuery titled(String title) {
+    return new BookQuery(title, this.author, this.minPrice, this.maxPrice);
+  }
+
+  // this query, also asking for the given author
+  BookQuery by(String author) {
+    return new BookQuery(this.title, author, this.minPrice, this.maxPrice);
+  }
+
+  // this query, also asking for prices of at least the given one
+  BookQuery pricedAtLeast(int price) {
+    return new BookQuery(this.title, this.author, Math.max(this.minPrice, price),
+        this.maxPrice);
+  }
+
+  // this query, also asking for prices of at most the given one
+  BookQuery pricedAtMost(int price) {
+    return new BookQuery(this.title, this.author, this.minPrice,
+        Math.min(this.maxPrice, price));
+  }
+
+  // this query, also asking for prices below the given one
+  BookQuery pricedBelow(int price) {
+    if (price == Integer.MIN_VALUE) {
+      return new BookQuery(this.title, this.author, 0, -1);
+    }
+    return this.pricedAtMost(price - 1);
+  }
+
+  // this query, also asking for prices above the given one
+  BookQuery pricedAbove(int price) {
+    if (price == Integer.MAX_VALUE) {
+      return new BookQuery(this.title, this.author, 0, -1);
+    }
+    return this.pricedAtLeast(price + 1);
+  }
+
+  // does the book match every part of this query?
+  boolean matches(Book book) {
+    return (this.title == null || this.title.equals(book.title))
+        && (this.author == null || this.author.equals(book.author))
+        && this.minPrice <= book.price && book.price <= this.maxPrice;
+  }
+}
+
+//how a catalog answers a query: the index it scans, the keys bounding the
+//scan, and how many books the scan visits
+class QueryPlan {
+  String name;
+  ABST<Book> index;
+  Book lo;
+  Book hi;
+  int estimate;
+
+  QueryPlan(String name, ABST<Book> index, Book lo, Book hi) {
+    this(name, index, lo, hi, index.size());
+  }
+
+  QueryPlan(String name, ABST<Book> index, Book lo, Book hi, int estimate) {
+    this.name = name;
+    this.index = index;
+    this.lo = lo;
+    this.hi = hi;
+    this.estimate = estimate;
+  }
+
+  // this plan with the given estimate
+  QueryPlan withEstimate(int estimate) {
+    return new QueryPlan(this.name, this.index, this.lo, this.hi, estimate);
+  }
+}
+
+class ExamplesBookCatalog {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  BookCatalog empty = new BookCatalog();
+  BookCatalog potter = this.empty.insert(this.fixtures.harryPotter1)
+      .insert(this.fixtures.harryPotter2).insert(this.fixtures.harryPotter3)
+      .insert(this.fixtures.harryPotter4).insert(this.fixtures.harryPotter6)
+      .insert(this.fixtures.harryPotter7);
+
+  // a catalog of n books by 10 authors, priced 0 to n - 1
+  BookCatalog books(int n) {
+    ArrayList<Book> books = new ArrayList<Book>();
+    for (int i = 0; i < n; i += 1) {
+      books.add(new Book("Book " + i, "Author " + i % 10, i));
+    }
+    return this.empty.insertAll(books);
+  }
+
+  // tests that every index holds the same books, once each
+  boolean testInsert(Tester t) {
+    return t.checkExpect(this.potter.size(), 6)
+        && t.checkExpect(this.potter.byTitle.getLeftMost(), this.fixtures.harryPotter2)
+        && t.checkExpect(this.potter.byAuthor.getLeftMost(), this.fixtures.harryPotter2)
+        && t.checkExpect(this.potter.byPrice.getLeftMost(), this.fixtures.harryPotter3)
+        && t.checkExpect(this.potter.byTitle.size(), this.potter.byAuthor.size())
+        && t.checkExpect(this.potter.byPrice.getLeftMost() == this.potter.byTitle
+            .rangeIterator(this.fixtures.harryPotter3, this.fixtures.harryPotter3).next(), true)
+        && t.checkExpect(this.books(1000).size(), 1000);
+  }
+
+  // tests the query planner
+  boolean testPlan(Tester t) {
+    BookCatalog books = this.books(1000);
+    BookQuery cheapByAuthor = new BookQuery().by("Author 3").pricedBelow(500);
+    return t.checkExpect(books.plan(cheapByAuthor).name, "author")
+        && t.checkExpect(books.plan(cheapByAuthor).estimate, 100)
+        && t.checkExpect(books.plan(new BookQuery().by("Author 3").pricedBelow(50)).name,
+            "price")
+        && t.checkExpect(books.plan(new BookQuery().titled("Book 7").by("Author 7")).name,
+            "title")
+        && t.checkExpect(books.plan(new BookQuery()).estimate, 1000)
+        && t.checkExpect(books.plan(new BookQuery().pricedBelow(Integer.MIN_VALUE)).estimate,
+            0);
+  }
+
+  // tests queries
+  boolean testQuery(Tester t) {
+    BookCatalog books = this.books(1000);
+    return t.checkExpect(this.potter.query(new BookQuery().by("JK Rowling").pricedBelow(11)),
+        new ConsList<Book>(this.fixtures.harryPotter3,
+            new ConsList<Book>(this.fixtures.harryPotter6, new MtList<Book>())))
+        && t.checkExpect(this.potter.query(new BookQuery().titled("Sorcerer's Stone")
+            .pricedAbove(10)), new ConsList<Book>(this.fixtures.harryPotter7, new MtList<Book>()))
+        && t.checkExpect(this.potter.query(new BookQuery().by("Nobody")), new MtList<Book>())
+        && t.checkExpect(books.query(new BookQuery().by("Author 3").pricedAtLeast(990)),
+            new ConsList<Book>(new Book("Book 993", "Author 3", 993), new MtList<Book>()));
+  }
+}
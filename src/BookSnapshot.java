@@ -0,0 +1,440 @@
+import tester.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+//a read-only snapshot of a tree of books, searched in place in a mapped file
+//the file holds the books as a sorted array of fixed-size records followed by
+//the distinct titles and authors they point to:
+//  header:  MAGIC, VERSION, order code, count                (4 ints)
+//  records: price, title offset, author offset               (3 ints each)
+//  strings: length in chars, then the UTF-16 chars           (per string)
+//string offsets are counted from the start of the strings; lookups binary
+//search the records and compare prices or chars straight from the mapped
+//bytes, just as the tree's comparator would, so opening a snapshot costs one
+//mmap and only the books a query returns are ever turned back into objects
+class BookSnapshot implements Iterable<Book> {
+  static final int MAGIC = 0x41425354;
+  static final int VERSION = 1;
+  static final int HEADER_BYTES = 16;
+  static final int RECORD_BYTES = 12;
+  static final int BY_PRICE = 0;
+  static final int BY_TITLE = 1;
+  static final int BY_AUTHOR = 2;
+
+  ByteBuffer bytes;
+  int orderCode;
+  int count;
+  int strings;
+
+  BookSnapshot(ByteBuffer bytes) {
+    if (bytes.limit() < HEADER_BYTES || bytes.getInt(0) != MAGIC
+        || bytes.getInt(4) != VERSION) {
+      throw new RuntimeException("Not a book snapshot");
+    }
+    this.bytes = bytes;
+    this.orderCode = bytes.getInt(8);
+    this.count = bytes.getInt(12);
+    if (this.count < 0 || HEADER_BYTES + (long) RECORD_BYTES * this.count > bytes.limit()) {
+      throw new RuntimeException("Snapshot holds fewer records than its header says");
+    }
+    this.strings = HEADER_BYTES + RECORD_BYTES * this.count;
+  }
+
+  // maps the snapshot file at the given path
+  static BookSnapshot open(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new RuntimeException("Snapshot too large to map");
+      }
+      return new BookSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not open the snapshot", e);
+    }
+  }
+
+  // writes the books of the tree, in order, as a snapshot file at the given path
+  // the file is written in two passes over the tree through one small buffer
+  static void write(ABST<Book> tree, Path path) {
+    int orderCode = BookSnapshot.orderCode(tree.order);
+    HashMap<String, Integer> offsets = new HashMap<String, Integer>();
+    ArrayList<String> distinct = new ArrayList<String>();
+    long end = 0;
+    int count = 0;
+    for (Book book : tree) {
+      for (String text : new String[] { book.title, book.author }) {
+        if (!offsets.containsKey(text)) {
+          offsets.put(text, (int) end);
+          distinct.add(text);
+          end += 4 + 2L * text.length();
+        }
+      }
+      count += 1;
+    }
+    if (HEADER_BYTES + (long) RECORD_BYTES * count + end > Integer.MAX_VALUE) {
+      throw new RuntimeException("Snapshot too large to map");
+    }
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      SnapshotOutput out = new SnapshotOutput(channel);
+      out.putInt(MAGIC);
+      out.putInt(VERSION);
+      out.putInt(orderCode);
+      out.putInt(count);
+      for (Book book : tree) {
+        out.putInt(book.price);
+        out.putInt(offsets.get(book.title));
+        out.putInt(offsets.get(book.author));
+      }
+      for (String text : distinct) {
+        out.putString(text);
+      }
+      out.flush();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not write the snapshot", e);
+    }
+  }
+
+  // the code stored for the comparator, which must be one of the book orders
+  // the keyed comparators sort just like the plain ones, so they share a code
+  static int orderCode(Comparator<Book> order) {
+    if (order instanceof BooksByPrice) {
+      return BY_PRICE;
+    }
+    else if (order instanceof BooksByTitle || order instanceof BooksByTitleKey) {
+      return BY_TITLE;
+    }
+    else if (order instanceof BooksByAuthor || order instanceof BooksByAuthorKey) {
+      return BY_AUTHOR;
+    }
+    else {
+      throw new RuntimeException("No snapshot format for this order");
+    }
+  }
+
+  // the comparator the books of the snapshot are sorted by
+  Comparator<Book> order() {
+    if (this.orderCode == BY_PRICE) {
+      return new BooksByPrice();
+    }
+    else if (this.orderCode == BY_TITLE) {
+      return new BooksByTitle();
+    }
+    else {
+      return new BooksByAuthor();
+    }
+  }
+
+  // how many books are in the snapshot?
+  int size() {
+    return this.count;
+  }
+
+  // the book at the given index, in order
+  Book get(int index) {
+    if (index < 0 || index >= this.count) {
+      throw new IndexOutOfBoundsException("No item at that index of the snapshot");
+    }
+    int record = HEADER_BYTES + RECORD_BYTES * index;
+    return new Book(this.readString(this.bytes.getInt(record + 4)),
+        this.readString(this.bytes.getInt(record + 8)), this.bytes.getInt(record));
+  }
+
+  // the string stored at the given offset
+  String readString(int offset) {
+    int start = this.strings + offset;
+    char[] chars = new char[this.bytes.getInt(start)];
+    for (int i = 0; i < chars.length; i += 1) {
+      chars[i] = this.bytes.getChar(start + 4 + 2 * i);
+    }
+    return new String(chars);
+  }
+
+  // compares the book at the given index with the key, as the snapshot's order would
+  int compareAt(int index, Book key) {
+    int record = HEADER_BYTES + RECORD_BYTES * index;
+    if (this.orderCode == BY_PRICE) {
+      return Integer.compare(this.bytes.getInt(record), key.price);
+    }
+    else if (this.orderCode == BY_TITLE) {
+      return this.compareString(this.bytes.getInt(record + 4), key.title);
+    }
+    else {
+      return this.compareString(this.bytes.getInt(record + 8), key.author);
+    }
+  }
+
+  // compares the string at the given offset with the key, as String.compareTo does
+  int compareString(int offset, String key) {
+    int start = this.strings + offset;
+    int length = this.bytes.getInt(start);
+    int shorter = Math.min(length, key.length());
+    for (int i = 0; i < shorter; i += 1) {
+      char c = this.bytes.getChar(start + 4 + 2 * i);
+      if (c != key.charAt(i)) {
+        return c - key.charAt(i);
+      }
+    }
+    return length - key.length();
+  }
+
+  // is a book equal to the key in the snapshot?
+  boolean present(Book key) {
+    int lo = 0;
+    int hi = this.count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int comp = this.compareAt(mid, key);
+      if (comp == 0) {
+        return true;
+      }
+      else if (comp < 0) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return false;
+  }
+
+  // the index of the first book not before the key, or of the first book
+  // after it when after is set
+  int bound(Book key, boolean after) {
+    int lo = 0;
+    int hi = this.count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      int comp = this.compareAt(mid, key);
+      if (comp < 0 || (after && comp == 0)) {
+        lo = mid + 1;
+      }
+      else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  // how many books are between lo and hi, inclusive?
+  int countInRange(Book lo, Book hi) {
+    return Math.max(0, this.bound(hi, true) - this.bound(lo, false));
+  }
+
+  // iterates over the books between lo and hi, inclusive, in order
+  Iterator<Book> rangeIterator(Book lo, Book hi) {
+    return new SnapshotIterator(this, this.bound(lo, false),
+        Math.max(this.bound(lo, false), this.bound(hi, true)));
+  }
+
+  // iterates over all the books, in order
+  public Iterator<Book> iterator() {
+    return new SnapshotIterator(this, 0, this.count);
+  }
+
+  // the books as a sorted list, read from the snapshot on demand
+  List<Book> asList() {
+    BookSnapshot snapshot = this;
+    return new AbstractList<Book>() {
+      public Book get(int index) {
+        return snapshot.get(index);
+      }
+
+      public int size() {
+        return snapshot.count;
+      }
+    };
+  }
+
+  // builds a balanced tree of the books, grown from the given leaf
+  // the leaf must order books as the snapshot does
+  ABST<Book> toTree(Leaf<Book> empty) {
+    if (BookSnapshot.orderCode(empty.order) != this.orderCode) {
+      throw new RuntimeException("Snapshot is sorted by another order");
+    }
+    return new BulkLoader<Book>(empty).fromSorted(this.asList());
+  }
+}
+
+//an iterator over the books of a snapshot from one index up to another
+class SnapshotIterator implements Iterator<Book> {
+  BookSnapshot snapshot;
+  int next;
+  int end;
+
+  // the range runs from next (inclusive) to end (exclusive)
+  SnapshotIterator(BookSnapshot snapshot, int next, int end) {
+    this.snapshot = snapshot;
+    this.next = next;
+    this.end = end;
+  }
+
+  // are there any books left to visit?
+  public boolean hasNext() {
+    return this.next < this.end;
+  }
+
+  // returns the next book in order
+  public Book next() {
+    if (!this.hasNext()) {
+      throw new NoSuchElementException("No next item of a finished traversal");
+    }
+    this.next += 1;
+    return this.snapshot.get(this.next - 1);
+  }
+}
+
+//writes ints and strings to a channel through one reusable buffer
+class SnapshotOutput {
+  static final int BUFFER_BYTES = 1 << 16;
+
+  FileChannel channel;
+  ByteBuffer buffer;
+
+  SnapshotOutput(FileChannel channel) {
+    this.channel = channel;
+    this.buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+  }
+
+  // makes room in the buffer for the given number of bytes
+  void ensure(int bytes) throws IOException {
+    if (this.buffer.remaining() < bytes) {
+      this.flush();
+    }
+  }
+
+  // writes the int
+  void putInt(int value) throws IOException {
+    this.ensure(4);
+    this.buffer.putInt(value);
+  }
+
+  // writes the string as its length in chars followed by its chars
+  void putString(String text) throws IOException {
+    this.putInt(text.length());
+    for (int i = 0; i < text.length(); i += 1) {
+      this.ensure(2);
+      this.buffer.putChar(text.charAt(i));
+    }
+  }
+
+  // writes everything buffered so far to the channel
+  void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+}
+
+class ExamplesBookSnapshot {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  Leaf<Book> byTitle = new AVLLeaf<Book>(new BooksByTitle());
+  Leaf<Book> byPrice = this.fixtures.avlLeafPrices;
+
+  // writes the tree to a new temporary file and maps it
+  BookSnapshot roundTrip(ABST<Book> tree) {
+    try {
+      Path path = Files.createTempFile("books", ".snapshot");
+      path.toFile().deleteOnExit();
+      BookSnapshot.write(tree, path);
+      return BookSnapshot.open(path);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // tests lookups on a snapshot sorted by title
+  boolean testByTitle(Tester t) {
+    BookSnapshot books = this.roundTrip(this.byTitle.insert(this.fixtures.harryPotter1)
+        .insert(this.fixtures.harryPotter2).insert(this.fixtures.harryPotter3)
+        .insert(this.fixtures.harryPotter6));
+    return t.checkExpect(books.size(), 4)
+        && t.checkExpect(books.get(0), this.fixtures.harryPotter2)
+        && t.checkExpect(books.get(3), this.fixtures.harryPotter1)
+        && t.checkExpect(books.present(new Book("Half Blood Price", "", 0)), true)
+        && t.checkExpect(books.present(new Book("Half Blood", "", 0)), false)
+        && t.checkExpect(books.present(new Book("Half Blood Prince", "", 0)), false)
+        && t.checkExpect(books.countInRange(new Book("D", "", 0), new Book("Q", "", 0)), 2)
+        && t.checkExpect(books.rangeIterator(new Book("D", "", 0), new Book("Q", "", 0))
+            .next(), this.fixtures.harryPotter6)
+        && t.checkException(new IndexOutOfBoundsException(
+            "No item at that index of the snapshot"), books, "get", 4);
+  }
+
+  // tests lookups on a large snapshot sorted by price, and rebuilding the tree
+  boolean testByPrice(Tester t) {
+    ABST<Book> tree = this.fixtures.everyNthPrice(2, 10000);
+    BookSnapshot books = this.roundTrip(tree);
+    return t.checkExpect(books.present(new Book("", "", 4242)), true)
+        && t.checkExpect(books.present(new Book("", "", 4243)), false)
+        && t.checkExpect(books.countInRange(new Book("", "", 101), new Book("", "", 200)), 50)
+        && t.checkExpect(books.countInRange(new Book("", "", 200), new Book("", "", 101)), 0)
+        && t.checkExpect(books.get(2500), new Book("Book 5000", "Author 5000", 5000))
+        && t.checkExpect(books.toTree(this.byPrice).sameData(tree), true)
+        && t.checkException(new RuntimeException("Snapshot is sorted by another order"),
+            books, "toTree", this.byTitle);
+  }
+
+  // tests that other files are rejected
+  boolean testNotASnapshot(Tester t) {
+    return t.checkException(new RuntimeException("Not a book snapshot"), this,
+        "notASnapshot");
+  }
+
+  // tests that a snapshot cut short, or with a bad count, is rejected when opened
+  boolean testTruncated(Tester t) {
+    return t.checkException(new RuntimeException(
+        "Snapshot holds fewer records than its header says"), this, "truncated", 20)
+        && t.checkException(new RuntimeException(
+            "Snapshot holds fewer records than its header says"), this, "truncated", -1);
+  }
+
+  // maps a snapshot of three books whose header claims the given count, and
+  // whose file ends after the header and one record
+  BookSnapshot truncated(int count) {
+    try {
+      Path path = Files.createTempFile("books", ".snapshot");
+      path.toFile().deleteOnExit();
+      BookSnapshot.write(this.byPrice.insert(this.fixtures.harryPotter1)
+          .insert(this.fixtures.harryPotter2).insert(this.fixtures.harryPotter3), path);
+      ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path), 0,
+          BookSnapshot.HEADER_BYTES + BookSnapshot.RECORD_BYTES);
+      bytes.putInt(12, count);
+      Files.write(path, Arrays.copyOf(bytes.array(), bytes.limit()));
+      return BookSnapshot.open(path);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // maps a file that holds no snapshot
+  BookSnapshot notASnapshot() {
+    try {
+      Path path = Files.createTempFile("books", ".snapshot");
+      path.toFile().deleteOnExit();
+      Files.write(path, new byte[] { 1, 2, 3 });
+      return BookSnapshot.open(path);
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
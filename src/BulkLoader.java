@@ -0,0 +1,207 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+//builds perfectly balanced binary search trees from many objects at once
+//the middle object of the sorted input becomes the root and each half becomes
+//a subtree, so a tree of n objects costs n nodes and no comparisons beyond the
+//sort; large halves are built in parallel on the fork-join pool
+class BulkLoader<T> {
+  // ranges at least this long are split across the fork-join pool
+  static final int PARALLEL_THRESHOLD = 1 << 13;
+
+  Leaf<T> empty;
+
+  // the given leaf supplies the comparator and the kind of node to build
+  BulkLoader(Leaf<T> empty) {
+    this.empty = empty;
+  }
+
+  // builds a tree from objects already sorted by the leaf's comparator
+  ABST<T> fromSorted(List<T> sorted) {
+    if (sorted.size() >= PARALLEL_THRESHOLD) {
+      return ForkJoinPool.commonPool()
+          .invoke(new BulkLoadTask<T>(this.empty, sorted, 0, sorted.size()));
+    }
+    else {
+      return new BulkLoadTask<T>(this.empty, sorted, 0, sorted.size()).compute();
+    }
+  }
+
+  // builds a tree from an array already sorted by the leaf's comparator
+  ABST<T> fromSorted(T[] sorted) {
+    return this.fromSorted(Arrays.asList(sorted));
+  }
+
+  // builds a tree from a list already sorted by the leaf's comparator
+  ABST<T> fromSorted(IList<T> sorted) {
+    List<T> objects = new ArrayList<T>();
+    for (T object : sorted) {
+      objects.add(object);
+    }
+    return this.fromSorted(objects);
+  }
+
+  // builds a tree from objects in any order, sorting them first if needed
+  ABST<T> from(List<T> objects) {
+    if (this.isSorted(objects)) {
+      return this.fromSorted(objects);
+    }
+    List<T> sorted = new ArrayList<T>(objects);
+    sorted.sort(this.empty.order);
+    return this.fromSorted(sorted);
+  }
+
+  // builds a tree from an array of objects in any order
+  ABST<T> from(T[] objects) {
+    return this.from(Arrays.asList(objects));
+  }
+
+  // builds a tree from a list of objects in any order
+  ABST<T> from(IList<T> objects) {
+    List<T> list = new ArrayList<T>();
+    for (T object : objects) {
+      list.add(object);
+    }
+    return this.from(list);
+  }
+
+  // builds a tree from a stream of objects in any order
+  // parallel streams are sorted in parallel
+  ABST<T> from(Stream<T> objects) {
+    return this.fromSorted(objects.sorted(this.empty.order).collect(Collectors.toList()));
+  }
+
+  // are the objects in order by the leaf's comparator?
+  boolean isSorted(List<T> objects) {
+    for (int i = 1; i < objects.size(); i += 1) {
+      if (this.empty.order.compare(objects.get(i - 1), objects.get(i)) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
+
+//builds the balanced subtree holding the objects in one range of a sorted list
+class BulkLoadTask<T> extends RecursiveTask<ABST<T>> {
+  static final long serialVersionUID = 1L;
+
+  Leaf<T> empty;
+  List<T> sorted;
+  int lo;
+  int hi;
+
+  // the range runs from lo (inclusive) to hi (exclusive)
+  BulkLoadTask(Leaf<T> empty, List<T> sorted, int lo, int hi) {
+    this.empty = empty;
+    this.sorted = sorted;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // builds the subtree, forking the left half when the range is large
+  // the leaf decides which run of objects around the middle one its root holds,
+  // so a bucket leaf loads each run of equal objects as one bucket
+  protected ABST<T> compute() {
+    if (this.hi - this.lo >= BulkLoader.PARALLEL_THRESHOLD) {
+      int mid = (this.lo + this.hi) >>> 1;
+      int first = this.empty.runStart(this.sorted, this.lo, mid);
+      int end = this.empty.runEnd(this.sorted, mid, this.hi);
+      BulkLoadTask<T> left = new BulkLoadTask<T>(this.empty, this.sorted, this.lo, first);
+      left.fork();
+      ABST<T> right = new BulkLoadTask<T>(this.empty, this.sorted, end, this.hi).compute();
+      return this.empty.buildRun(this.sorted, first, end, left.join(), right);
+    }
+    else {
+      return this.empty.insertAllHelper(this.sorted, this.lo, this.hi);
+    }
+  }
+}
+
+class ExamplesBulkLoader {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  Leaf<Book> byPrice = this.fixtures.leafCompPrices;
+  Leaf<Book> byPriceAVL = this.fixtures.avlLeafPrices;
+
+  BulkLoader<Book> loader = new BulkLoader<Book>(this.byPrice);
+  BulkLoader<Book> avlLoader = new BulkLoader<Book>(this.byPriceAVL);
+
+  // the balanced tree of harryPotter3, harryPotter1 and harryPotter2, by price
+  ABST<Book> prices312 = new Node<Book>(new BooksByPrice(), this.fixtures.harryPotter1,
+      this.byPrice.insert(this.fixtures.harryPotter3),
+      this.byPrice.insert(this.fixtures.harryPotter2));
+
+  // tests fromSorted
+  boolean testFromSorted(Tester t) {
+    return t.checkExpect(this.loader.fromSorted(new ArrayList<Book>()), this.byPrice)
+        && t.checkExpect(this.loader.fromSorted(new Book[] { this.fixtures.harryPotter3,
+            this.fixtures.harryPotter1, this.fixtures.harryPotter2 }), this.prices312)
+        && t.checkExpect(this.loader.fromSorted(new ConsList<Book>(this.fixtures.harryPotter3,
+            new ConsList<Book>(this.fixtures.harryPotter1,
+                new ConsList<Book>(this.fixtures.harryPotter2, new MtList<Book>())))),
+            this.prices312)
+        && t.checkExpect(this.loader.fromSorted(this.fixtures.priceList(0, 1000)).height(), 10)
+        && t.checkExpect(this.loader.fromSorted(this.fixtures.priceList(0, 1000)).sameData(
+            this.byPrice.insert(this.fixtures.harryPotter1)), false);
+  }
+
+  // tests from, which sorts unsorted input first
+  boolean testFrom(Tester t) {
+    List<Book> shuffled = this.fixtures.priceList(0, 2000);
+    Collections.shuffle(shuffled, new Random(7));
+    return t.checkExpect(this.loader.from(new Book[] { this.fixtures.harryPotter2,
+        this.fixtures.harryPotter3, this.fixtures.harryPotter1 }), this.prices312)
+        && t.checkExpect(this.loader.from(Stream.of(this.fixtures.harryPotter1,
+            this.fixtures.harryPotter2, this.fixtures.harryPotter3)), this.prices312)
+        && t.checkExpect(this.loader.from(shuffled).sameData(this.loader.fromSorted(
+            this.fixtures.priceList(0, 2000))), true)
+        && t.checkExpect(this.loader.isSorted(shuffled), false)
+        && t.checkExpect(this.loader.isSorted(this.fixtures.priceList(0, 10)), true);
+  }
+
+  // tests that a bucket leaf loads each run of equal objects as one bucket, as
+  // inserting them one at a time does, on both the sequential and parallel paths
+  boolean testBuckets(Tester t) {
+    BulkLoader<Book> byAuthor = new BulkLoader<Book>(this.fixtures.bucketLeafAuthors);
+    List<Book> books = Arrays.asList(this.fixtures.harryPotter3, this.fixtures.harryPotter4,
+        this.fixtures.harryPotter6, this.fixtures.harryPotter7, this.fixtures.harryPotter1,
+        this.fixtures.harryPotter2, this.fixtures.harryPotter5);
+    List<Book> many = new ArrayList<Book>();
+    ABST<Book> inserted = this.fixtures.bucketLeafAuthors;
+    for (int i = 0; i < 2000; i += 1) {
+      for (Book book : books) {
+        many.add(book);
+        inserted = inserted.insert(book);
+      }
+    }
+    ABST<Book> loaded = byAuthor.from(many);
+    return t.checkExpect(byAuthor.from(books).buildList(),
+        this.fixtures.bucketAll.buildList())
+        && t.checkExpect(byAuthor.from(books).height(), this.fixtures.bucketAll.height())
+        && t.checkExpect(byAuthor.from(books).count(this.fixtures.harryPotter6), 4)
+        && t.checkExpect(loaded.height(), inserted.height())
+        && t.checkExpect(loaded.size(), 14000)
+        && t.checkExpect(loaded.count(this.fixtures.harryPotter7), 8000)
+        && t.checkExpect(loaded.sameData(inserted), true);
+  }
+
+  // tests the parallel path, and that balanced trees stay balanced after inserts
+  boolean testParallel(Tester t) {
+    ABST<Book> big = this.avlLoader.fromSorted(this.fixtures.priceList(0, 100000));
+    return t.checkExpect(big.height(), 17)
+        && t.checkExpect(big.present(new Book("", "", 54321)), true)
+        && t.checkExpect(big.getLeftMost().price, 0)
+        && t.checkExpect(big.insert(new Book("", "", 100000)).height(), 17)
+        && t.checkExpect(this.avlLoader.from(this.fixtures.priceList(0, 20000).stream().parallel())
+            .stream().mapToLong(b -> b.price).sum(), 19999L * 20000 / 2);
+  }
+}
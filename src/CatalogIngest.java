@@ -0,0 +1,559 @@
+import tester.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+//loads books from a delimited dump into a balanced tree
+//each row is a title, an author and a price, separated by the delimiter and
+//ended by a newline (a carriage return before it is dropped); the reader
+//fills fixed-size chunks straight from the channel and hands each chunk, cut
+//at its last newline, to parsers running on an executor; parsers decode the
+//fields in place, so the only Strings made are each book's title and author,
+//and each parser returns its own books, sorted, once the dump is read; the
+//sorted runs are then merged on the fork-join pool and bulk-loaded into a
+//balanced tree
+//there are only as many chunks as the queue depth plus the parsers, so when
+//the parsers fall behind the reader waits for a chunk to come back; it waits
+//POLL_MILLIS at a time and checks the parsers in between, so a parser that
+//fails cannot leave it waiting forever, and the ingest fails with the
+//parser's exception; the report says how long the reader waited
+//(back-pressure) and how long the parsers waited for work, along with the
+//throughput in rows per second
+class CatalogIngest {
+  // chunks are this many bytes unless asked otherwise; no row may be longer
+  static final int CHUNK_BYTES = 1 << 20;
+  // how long the reader waits for a chunk before it checks on the parsers
+  static final long POLL_MILLIS = 100;
+
+  Leaf<Book> empty;
+  byte delimiter;
+  int parsers;
+  int chunkBytes;
+  int queueDepth;
+
+  // tab-separated rows, one parser per core and four chunks waiting at most
+  CatalogIngest(Leaf<Book> empty) {
+    this(empty, (byte) '\t', Runtime.getRuntime().availableProcessors(), CHUNK_BYTES, 4);
+  }
+
+  // the leaf supplies the comparator and the kind of tree to build
+  CatalogIngest(Leaf<Book> empty, byte delimiter, int parsers, int chunkBytes,
+      int queueDepth) {
+    if (parsers <= 0 || chunkBytes <= 0 || queueDepth <= 0) {
+      throw new RuntimeException("No ingest with that many parsers, bytes or chunks");
+    }
+    this.empty = empty;
+    this.delimiter = delimiter;
+    this.parsers = parsers;
+    this.chunkBytes = chunkBytes;
+    this.queueDepth = queueDepth;
+  }
+
+  // loads the books in the file
+  IngestReport ingest(Path file) {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      return this.ingest(channel);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not read the dump", e);
+    }
+  }
+
+  // loads the books read from the channel, up to its end
+  IngestReport ingest(ReadableByteChannel channel) throws IOException {
+    long start = System.nanoTime();
+    int chunks = this.queueDepth + this.parsers;
+    ArrayBlockingQueue<IngestChunk> free = new ArrayBlockingQueue<IngestChunk>(chunks);
+    ArrayBlockingQueue<IngestChunk> full = new ArrayBlockingQueue<IngestChunk>(
+        chunks + this.parsers);
+    for (int i = 0; i < chunks; i += 1) {
+      free.add(new IngestChunk(new byte[this.chunkBytes]));
+    }
+    ArrayList<IngestParser> parsers = new ArrayList<IngestParser>();
+    ArrayList<Future<Book[]>> running = new ArrayList<Future<Book[]>>();
+    ExecutorService pool = Executors.newFixedThreadPool(this.parsers);
+    try {
+      for (int i = 0; i < this.parsers; i += 1) {
+        IngestParser parser = new IngestParser(this.empty.order, this.delimiter, free, full);
+        parsers.add(parser);
+        running.add(pool.submit(parser));
+      }
+      return this.ingest(channel, start, free, full, parsers, running);
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  // reads the channel into chunks for the running parsers, then merges their runs
+  // into the tree
+  IngestReport ingest(ReadableByteChannel channel, long start,
+      ArrayBlockingQueue<IngestChunk> free, ArrayBlockingQueue<IngestChunk> full,
+      List<IngestParser> parsers, List<Future<Book[]>> running) throws IOException {
+    long blocked = 0;
+    long bytes = 0;
+    try {
+      IngestChunk chunk = CatalogIngest.takeFree(free, running);
+      int carried = 0;
+      while (chunk != null) {
+        ByteBuffer buffer = ByteBuffer.wrap(chunk.bytes, carried,
+            chunk.bytes.length - carried);
+        boolean ended = false;
+        while (buffer.hasRemaining() && !ended) {
+          ended = channel.read(buffer) < 0;
+        }
+        int length = buffer.position();
+        int end = length;
+        IngestChunk next = null;
+        if (!ended) {
+          end = CatalogIngest.lastNewline(chunk.bytes, length) + 1;
+          if (end == 0) {
+            // a full chunk with no newline is only fine as the last row of the dump
+            if (!CatalogIngest.atEnd(channel)) {
+              throw new RuntimeException("Row longer than a chunk");
+            }
+            end = length;
+          }
+          else {
+            long waitStart = System.nanoTime();
+            next = CatalogIngest.takeFree(free, running);
+            blocked += System.nanoTime() - waitStart;
+            carried = length - end;
+            System.arraycopy(chunk.bytes, end, next.bytes, 0, carried);
+          }
+        }
+        chunk.length = end;
+        bytes += end;
+        full.put(chunk);
+        chunk = next;
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while ingesting", e);
+    }
+    finally {
+      for (int i = 0; i < this.parsers; i += 1) {
+        full.add(IngestChunk.END);
+      }
+    }
+    long parsed = 0;
+    long rejected = 0;
+    long starved = 0;
+    List<Book[]> runs = new ArrayList<Book[]>();
+    for (int i = 0; i < this.parsers; i += 1) {
+      Book[] run = CatalogIngest.result(running.get(i));
+      IngestParser parser = parsers.get(i);
+      runs.add(run);
+      parsed += run.length;
+      rejected += parser.rejected;
+      starved += parser.starved;
+    }
+    long sorted = System.nanoTime();
+    Book[] books = ForkJoinPool.commonPool().invoke(
+        new RunMerge(this.empty.order, runs, 0, runs.size()));
+    long merged = System.nanoTime();
+    ABST<Book> tree = new BulkLoader<Book>(this.empty).fromSorted(books);
+    long built = System.nanoTime();
+    return new IngestReport(tree, parsed, rejected, bytes, blocked, starved,
+        sorted - start, merged - sorted, built - merged);
+  }
+
+  // the next free chunk, waiting for a parser to hand one back
+  // fails with the parser's exception if one of them has stopped, since
+  // parsers only stop early when they fail
+  static IngestChunk takeFree(ArrayBlockingQueue<IngestChunk> free,
+      List<Future<Book[]>> running) throws InterruptedException {
+    IngestChunk chunk = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+    while (chunk == null) {
+      for (Future<Book[]> parser : running) {
+        if (parser.isDone()) {
+          CatalogIngest.result(parser);
+          throw new RuntimeException("A parser stopped before the dump was read");
+        }
+      }
+      chunk = free.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    return chunk;
+  }
+
+  // the sorted run the parser returned, waiting for it to finish
+  static Book[] result(Future<Book[]> parser) {
+    try {
+      return parser.get();
+    }
+    catch (ExecutionException e) {
+      throw new RuntimeException("A parser failed", e.getCause());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while ingesting", e);
+    }
+  }
+
+  // has the channel nothing left to read? reads a byte to find out, so only
+  // ask when that byte would be an error anyway
+  static boolean atEnd(ReadableByteChannel channel) throws IOException {
+    ByteBuffer one = ByteBuffer.allocate(1);
+    int read = 0;
+    while (read == 0) {
+      read = channel.read(one);
+    }
+    return read < 0;
+  }
+
+  // the index of the last newline among the first length bytes, or -1
+  static int lastNewline(byte[] bytes, int length) {
+    for (int i = length - 1; i >= 0; i -= 1) {
+      if (bytes[i] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
+
+//a buffer of whole rows passed from the reader to a parser and back
+class IngestChunk {
+  // tells a parser that the dump has been read
+  static final IngestChunk END = new IngestChunk(new byte[0]);
+
+  byte[] bytes;
+  int length;
+
+  IngestChunk(byte[] bytes) {
+    this.bytes = bytes;
+    this.length = 0;
+  }
+}
+
+//parses the chunks it takes into books, then returns them sorted
+//a row without exactly three fields or with a bad price is rejected and
+//counted; empty rows are skipped
+class IngestParser implements Callable<Book[]> {
+  Comparator<Book> order;
+  byte delimiter;
+  ArrayBlockingQueue<IngestChunk> free;
+  ArrayBlockingQueue<IngestChunk> full;
+  ArrayList<Book> books;
+  long rejected;
+  long starved;
+
+  IngestParser(Comparator<Book> order, byte delimiter, ArrayBlockingQueue<IngestChunk> free,
+      ArrayBlockingQueue<IngestChunk> full) {
+    this.order = order;
+    this.delimiter = delimiter;
+    this.free = free;
+    this.full = full;
+    this.books = new ArrayList<Book>();
+    this.rejected = 0;
+    this.starved = 0;
+  }
+
+  // parses chunks until the dump ends, then returns what it parsed, sorted
+  public Book[] call() throws InterruptedException {
+    while (true) {
+      long waitStart = System.nanoTime();
+      IngestChunk chunk = this.full.take();
+      this.starved += System.nanoTime() - waitStart;
+      if (chunk == IngestChunk.END) {
+        break;
+      }
+      this.parse(chunk.bytes, chunk.length);
+      this.free.put(chunk);
+    }
+    this.books.sort(this.order);
+    return this.books.toArray(new Book[0]);
+  }
+
+  // parses every row among the first length bytes
+  void parse(byte[] bytes, int length) {
+    int start = 0;
+    while (start < length) {
+      int end = start;
+      while (end < length && bytes[end] != '\n') {
+        end += 1;
+      }
+      this.parseRow(bytes, start, end);
+      start = end + 1;
+    }
+  }
+
+  // parses the row from start (inclusive) to end (exclusive)
+  void parseRow(byte[] bytes, int start, int end) {
+    if (end > start && bytes[end - 1] == '\r') {
+      end -= 1;
+    }
+    if (end == start) {
+      return;
+    }
+    int first = IngestParser.indexOf(bytes, this.delimiter, start, end);
+    int second = IngestParser.indexOf(bytes, this.delimiter, first + 1, end);
+    if (second == end || IngestParser.indexOf(bytes, this.delimiter, second + 1, end) < end) {
+      this.rejected += 1;
+      return;
+    }
+    long price = IngestParser.parsePrice(bytes, second + 1, end);
+    if (price > Integer.MAX_VALUE) {
+      this.rejected += 1;
+      return;
+    }
+    this.books.add(new Book(new String(bytes, start, first - start, StandardCharsets.UTF_8),
+        new String(bytes, first + 1, second - first - 1, StandardCharsets.UTF_8),
+        (int) price));
+  }
+
+  // the index of the first delimiter from start (inclusive) to end (exclusive),
+  // or end if there is none
+  static int indexOf(byte[] bytes, byte delimiter, int start, int end) {
+    while (start < end && bytes[start] != delimiter) {
+      start += 1;
+    }
+    return Math.min(start, end);
+  }
+
+  // the price written in decimal from start to end, which may begin with a minus
+  // sign, or a value above Integer.MAX_VALUE if it is not a valid int
+  static long parsePrice(byte[] bytes, int start, int end) {
+    boolean negative = start < end && bytes[start] == '-';
+    if (negative) {
+      start += 1;
+    }
+    if (start == end || end - start > 10) {
+      return Long.MAX_VALUE;
+    }
+    long value = 0;
+    for (int i = start; i < end; i += 1) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9) {
+        return Long.MAX_VALUE;
+      }
+      value = value * 10 + digit;
+    }
+    if (negative) {
+      value = -value;
+      if (value < Integer.MIN_VALUE) {
+        return Long.MAX_VALUE;
+      }
+    }
+    return value;
+  }
+}
+
+//merges the sorted runs from lo (inclusive) to hi (exclusive) into one sorted
+//array, merging the two halves of the range in parallel; on ties the earlier
+//run comes first
+class RunMerge extends RecursiveTask<Book[]> {
+  static final long serialVersionUID = 1L;
+
+  Comparator<Book> order;
+  List<Book[]> runs;
+  int lo;
+  int hi;
+
+  RunMerge(Comparator<Book> order, List<Book[]> runs, int lo, int hi) {
+    this.order = order;
+    this.runs = runs;
+    this.lo = lo;
+    this.hi = hi;
+  }
+
+  // merges the range, forking the left half
+  protected Book[] compute() {
+    if (this.hi - this.lo == 0) {
+      return new Book[0];
+    }
+    if (this.hi - this.lo == 1) {
+      return this.runs.get(this.lo);
+    }
+    int mid = (this.lo + this.hi) >>> 1;
+    RunMerge left = new RunMerge(this.order, this.runs, this.lo, mid);
+    left.fork();
+    Book[] right = new RunMerge(this.order, this.runs, mid, this.hi).compute();
+    return RunMerge.merge(this.order, left.join(), right);
+  }
+
+  // the two sorted arrays merged into one
+  static Book[] merge(Comparator<Book> order, Book[] left, Book[] right) {
+    Book[] merged = new Book[left.length + right.length];
+    int i = 0;
+    int j = 0;
+    for (int k = 0; k < merged.length; k += 1) {
+      if (j == right.length || (i < left.length && order.compare(left[i], right[j]) <= 0)) {
+        merged[k] = left[i];
+        i += 1;
+      }
+      else {
+        merged[k] = right[j];
+        j += 1;
+      }
+    }
+    return merged;
+  }
+}
+
+//what an ingest produced and what it cost
+class IngestReport {
+  ABST<Book> tree;
+  long rows;
+  long rejected;
+  long bytes;
+  long blockedNanos;
+  long starvedNanos;
+  long parseNanos;
+  long mergeNanos;
+  long buildNanos;
+
+  IngestReport(ABST<Book> tree, long rows, long rejected, long bytes, long blockedNanos,
+      long starvedNanos, long parseNanos, long mergeNanos, long buildNanos) {
+    this.tree = tree;
+    this.rows = rows;
+    this.rejected = rejected;
+    this.bytes = bytes;
+    this.blockedNanos = blockedNanos;
+    this.starvedNanos = starvedNanos;
+    this.parseNanos = parseNanos;
+    this.mergeNanos = mergeNanos;
+    this.buildNanos = buildNanos;
+  }
+
+  // how long the whole ingest took
+  long nanos() {
+    return this.parseNanos + this.mergeNanos + this.buildNanos;
+  }
+
+  // the rows loaded per second of the whole ingest
+  double rowsPerSecond() {
+    return this.rows * 1e9 / Math.max(1, this.nanos());
+  }
+
+  // a one-line summary of the throughput and where the time went
+  String summary() {
+    return String.format("%d rows (%d rejected), %.1f MB in %d ms: %.0f rows/s; "
+        + "read+parse+sort %d ms, merge %d ms, build %d ms; reader blocked %d ms, "
+        + "parsers starved %d ms", this.rows, this.rejected, this.bytes / 1e6,
+        this.nanos() / 1000000, this.rowsPerSecond(), this.parseNanos / 1000000,
+        this.mergeNanos / 1000000, this.buildNanos / 1000000, this.blockedNanos / 1000000,
+        this.starvedNanos / 1000000);
+  }
+}
+
+class ExamplesCatalogIngest {
+  ExamplesBST fixtures = new ExamplesBST();
+  Book amelie = new Book("Am\u00e9lie", "Jean-Pierre", -3);
+
+  Leaf<Book> byTitle = new AVLLeaf<Book>(new BooksByTitle());
+  Leaf<Book> byPrice = this.fixtures.avlLeafPrices;
+
+  // writes the text to a new temporary file
+  Path dump(String text) {
+    try {
+      Path path = Files.createTempFile("books", ".tsv");
+      path.toFile().deleteOnExit();
+      Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+      return path;
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // tests parsing rows, across chunks small enough to cut most rows in two
+  boolean testIngest(Tester t) {
+    IngestReport report = new CatalogIngest(this.byTitle, (byte) '\t', 3, 40, 2).ingest(
+        this.dump("Sorcerer's Stone\tKellie Laflin\t10\r\nChamber of Secrets\tEllie Adams\t12\n"
+            + "\n" + "no price\tnobody\n" + "bad price\tnobody\t1x\n"
+            + "too\tmany\tfields\t1\n" + "Am\u00e9lie\tJean-Pierre\t-3\n"
+            + "Prisoner of Askaban\tJK Rowling\t9"));
+    return t.checkExpect(report.tree.buildList(), new ConsList<Book>(this.amelie,
+        new ConsList<Book>(this.fixtures.harryPotter2,
+            new ConsList<Book>(this.fixtures.harryPotter3,
+                new ConsList<Book>(this.fixtures.harryPotter1, new MtList<Book>())))))
+        && t.checkExpect(report.rows, 4L)
+        && t.checkExpect(report.rejected, 3L)
+        && t.checkExpect(report.rowsPerSecond() > 0, true);
+  }
+
+  // tests a larger dump against bulk loading the same books
+  boolean testIngestLarge(Tester t) {
+    StringBuilder text = new StringBuilder();
+    List<Book> prices = this.fixtures.priceList(0, 20000);
+    ArrayList<Book> books = new ArrayList<Book>();
+    for (int i = 0; i < 20000; i += 1) {
+      Book book = prices.get(i * 7919 % 20000);
+      books.add(book);
+      text.append(book.title).append(',').append(book.author).append(',').append(book.price)
+          .append('\n');
+    }
+    IngestReport report = new CatalogIngest(this.byPrice, (byte) ',', 4, 4096, 3).ingest(
+        this.dump(text.toString()));
+    return t.checkExpect(report.rows, 20000L)
+        && t.checkExpect(report.tree.height(), 15)
+        && t.checkExpect(report.tree.sameData(new BulkLoader<Book>(this.byPrice).from(books)),
+            true)
+        && t.checkExpect(report.bytes, (long) text.length());
+  }
+
+  // tests that a failed parser fails the ingest, and that a reader waiting for
+  // a chunk notices a parser that has stopped
+  boolean testParserFailure(Tester t) {
+    Leaf<Book> unordered = new AVLLeaf<Book>((book1, book2) -> {
+      throw new RuntimeException("No order for books");
+    });
+    CompletableFuture<Book[]> stopped = new CompletableFuture<Book[]>();
+    stopped.completeExceptionally(new RuntimeException("No more parsing"));
+    List<Future<Book[]>> failed = new ArrayList<Future<Book[]>>();
+    failed.add(stopped);
+    List<Future<Book[]>> finished = new ArrayList<Future<Book[]>>();
+    finished.add(CompletableFuture.completedFuture(new Book[0]));
+    return t.checkException(new RuntimeException("A parser failed"),
+        new CatalogIngest(unordered, (byte) '\t', 1, 64, 1), "ingest",
+        this.dump("Title\tAuthor\t1\nSecond\tAuthor\t22\n"))
+        && t.checkException(new RuntimeException("A parser failed"),
+            new CatalogIngest(this.byTitle), "takeFree",
+            new ArrayBlockingQueue<IngestChunk>(1), failed)
+        && t.checkException(new RuntimeException("A parser stopped before the dump was read"),
+            new CatalogIngest(this.byTitle), "takeFree",
+            new ArrayBlockingQueue<IngestChunk>(1), finished);
+  }
+
+  // tests that rows longer than a chunk are refused, but a last row without a
+  // newline may fill a whole chunk
+  boolean testLongRow(Tester t) {
+    return t.checkException(new RuntimeException("Row longer than a chunk"),
+        new CatalogIngest(this.byTitle, (byte) '\t', 1, 16, 1), "ingest",
+        this.dump("A title much longer than sixteen bytes\tAuthor\t1\n"))
+        && t.checkExpect(new CatalogIngest(this.byTitle, (byte) '\t', 1, 16, 1).ingest(
+            this.dump("Title\tAuthor\t1\nSecond\tAuthor\t22")).tree.buildList(),
+            new ConsList<Book>(new Book("Second", "Author", 22),
+                new ConsList<Book>(new Book("Title", "Author", 1), new MtList<Book>())));
+  }
+
+  // tests parsing prices
+  boolean testParsePrice(Tester t) {
+    byte[] bytes = "12-7x2147483648".getBytes(StandardCharsets.UTF_8);
+    return t.checkExpect(IngestParser.parsePrice(bytes, 0, 2), 12L)
+        && t.checkExpect(IngestParser.parsePrice(bytes, 2, 4), -7L)
+        && t.checkExpect(IngestParser.parsePrice(bytes, 2, 5), Long.MAX_VALUE)
+        && t.checkExpect(IngestParser.parsePrice(bytes, 2, 3), Long.MAX_VALUE)
+        && t.checkExpect(IngestParser.parsePrice(bytes, 5, 15), 2147483648L);
+  }
+}
@@ -0,0 +1,65 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+//compares loading a tab-separated dump with CatalogIngest against reading it
+//line by line and inserting one book at a time
+//run with: java -Xmx8g CatalogIngestBenchmark [rows]
+//the dump is written to a temporary file first; books are indexed by title,
+//and the ingest runs with 1 parser and then doubles up to one per core
+class CatalogIngestBenchmark {
+  // runs the benchmark
+  public static void main(String[] args) throws IOException {
+    int rows = 2000000;
+    if (args.length > 0) {
+      rows = Integer.parseInt(args[0]);
+    }
+    Path dump = Files.createTempFile("books", ".tsv");
+    dump.toFile().deleteOnExit();
+    CatalogIngestBenchmark.write(dump, rows);
+    System.out.println(rows + " rows, " + Files.size(dump) / 1000000 + " MB");
+    Leaf<Book> byTitle = new AVLLeaf<Book>(new BooksByTitle());
+    for (int round = 0; round < 2; round += 1) {
+      long start = System.nanoTime();
+      ABST<Book> tree = CatalogIngestBenchmark.lineByLine(dump, byTitle);
+      long nanos = System.nanoTime() - start;
+      System.out.printf("line by line: %d rows in %d ms: %.0f rows/s%n", tree.size(),
+          nanos / 1000000, tree.size() * 1e9 / nanos);
+      int cores = Runtime.getRuntime().availableProcessors();
+      for (int parsers = 1; parsers <= cores; parsers *= 2) {
+        IngestReport report = new CatalogIngest(byTitle, (byte) '\t', parsers,
+            CatalogIngest.CHUNK_BYTES, 4).ingest(dump);
+        System.out.println("ingest, " + parsers + " parsers: " + report.summary());
+      }
+    }
+  }
+
+  // writes the given number of rows of random books
+  static void write(Path dump, int rows) throws IOException {
+    Random random = new Random(rows);
+    try (BufferedWriter out = Files.newBufferedWriter(dump, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < rows; i += 1) {
+        out.write("The Book of " + random.nextInt(Integer.MAX_VALUE) + "\tAuthor "
+            + random.nextInt(100000) + "\t" + random.nextInt(10000) + "\n");
+      }
+    }
+  }
+
+  // reads the dump a line at a time, inserting each book
+  static ABST<Book> lineByLine(Path dump, Leaf<Book> empty) throws IOException {
+    ABST<Book> tree = empty;
+    try (BufferedReader in = Files.newBufferedReader(dump, StandardCharsets.UTF_8)) {
+      String line = in.readLine();
+      while (line != null) {
+        String[] fields = line.split("\t");
+        tree = tree.insert(new Book(fields[0], fields[1], Integer.parseInt(fields[2])));
+        line = in.readLine();
+      }
+    }
+    return tree;
+  }
+}
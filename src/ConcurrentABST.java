@@ -0,0 +1,284 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+//a thread-safe binary search tree that publishes persistent ABST versions
+//the current version lives in an atomic reference; readers take it and search
+//it without any locks or retries, so reads are wait-free and always see one
+//whole version; a writer builds a new version and installs it with CAS, and
+//after CAS_ATTEMPTS failed tries it queues its object instead, so that one
+//writer at a time (the combiner) inserts every queued object as one batch on
+//a transient copy and installs the result with a single CAS
+class ConcurrentABST<T> {
+  // a writer queues its object after this many failed CAS attempts
+  static final int CAS_ATTEMPTS = 2;
+
+  AtomicReference<ABST<T>> root;
+  ConcurrentLinkedQueue<PendingInsert<T>> pending;
+  AtomicBoolean combining;
+
+  ConcurrentABST(ABST<T> root) {
+    this.root = new AtomicReference<ABST<T>>(root);
+    this.pending = new ConcurrentLinkedQueue<PendingInsert<T>>();
+    this.combining = new AtomicBoolean(false);
+  }
+
+  // the current version of the tree, which never changes once returned
+  ABST<T> snapshot() {
+    return this.root.get();
+  }
+
+  // is the object in the current version of the tree?
+  boolean present(T object) {
+    return this.root.get().present(object);
+  }
+
+  // how many objects are in the current version of the tree?
+  int size() {
+    return this.root.get().size();
+  }
+
+  // inserts the object, returning once a version holding it is published
+  void insert(T object) {
+    for (int i = 0; i < CAS_ATTEMPTS; i += 1) {
+      ABST<T> current = this.root.get();
+      if (this.root.compareAndSet(current, current.insert(object))) {
+        return;
+      }
+    }
+    PendingInsert<T> insert = new PendingInsert<T>(object);
+    this.pending.add(insert);
+    while (!insert.done) {
+      if (this.combining.compareAndSet(false, true)) {
+        try {
+          this.combine();
+        }
+        finally {
+          this.combining.set(false);
+        }
+      }
+      else {
+        Thread.onSpinWait();
+      }
+    }
+    if (insert.failure != null) {
+      throw insert.failure;
+    }
+  }
+
+  // inserts all the objects as one new version
+  void insertAll(Iterable<T> objects) {
+    while (true) {
+      ABST<T> current = this.root.get();
+      ABST<T> next = current.asTransient().insertAll(objects).persistent();
+      if (this.root.compareAndSet(current, next)) {
+        return;
+      }
+    }
+  }
+
+  // inserts every queued object as one batch and marks them done
+  // an object the tree rejects is left out of the batch, and the exception is
+  // recorded for its writer to rethrow; if the batch cannot be inserted at all,
+  // every writer in it gets the failure, so none of them waits forever
+  // only the thread holding the combining flag runs this
+  void combine() {
+    ArrayList<PendingInsert<T>> batch = new ArrayList<PendingInsert<T>>();
+    PendingInsert<T> insert = this.pending.poll();
+    while (insert != null) {
+      batch.add(insert);
+      insert = this.pending.poll();
+    }
+    if (batch.isEmpty()) {
+      return;
+    }
+    RuntimeException failure = null;
+    try {
+      while (true) {
+        ABST<T> current = this.root.get();
+        TransientABST<T> next = current.asTransient();
+        for (PendingInsert<T> queued : batch) {
+          queued.failure = null;
+          try {
+            next.insert(queued.object);
+          }
+          catch (RuntimeException e) {
+            queued.failure = e;
+          }
+        }
+        if (this.root.compareAndSet(current, next.persistent())) {
+          break;
+        }
+      }
+    }
+    catch (RuntimeException | Error e) {
+      failure = new RuntimeException("Could not insert the queued objects", e);
+      throw e;
+    }
+    finally {
+      for (PendingInsert<T> queued : batch) {
+        if (failure != null) {
+          queued.failure = failure;
+        }
+        queued.done = true;
+      }
+    }
+  }
+}
+
+//an insert waiting in the queue of a ConcurrentABST
+//done is set once a version holding the object has been published, or once
+//the insert has failed, in which case failure holds the exception for the
+//writer to rethrow; failure is written before done, so a writer that sees done
+//also sees it
+class PendingInsert<T> {
+  T object;
+  RuntimeException failure;
+  volatile boolean done;
+
+  PendingInsert(T object) {
+    this.object = object;
+    this.failure = null;
+    this.done = false;
+  }
+}
+
+//orders books by price, but rejects any book with a negative price, so tests
+//can insert objects the tree refuses
+class BooksByPositivePrice implements Comparator<Book> {
+
+  // compares the prices, rejecting negative ones
+  public int compare(Book b1, Book b2) {
+    if (b1.price < 0 || b2.price < 0) {
+      throw new RuntimeException("No negative prices");
+    }
+    return Integer.compare(b1.price, b2.price);
+  }
+}
+
+class ExamplesConcurrentABST {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  Leaf<Book> byPriceAVL = this.fixtures.avlLeafPrices;
+
+  // tests insert, present and snapshot from one thread
+  boolean testInsert(Tester t) {
+    ConcurrentABST<Book> books = new ConcurrentABST<Book>(this.byPriceAVL);
+    books.insert(this.fixtures.harryPotter1);
+    ABST<Book> before = books.snapshot();
+    books.insert(this.fixtures.harryPotter2);
+    books.insert(this.fixtures.harryPotter3);
+    return t.checkExpect(books.present(this.fixtures.harryPotter3), true)
+        && t.checkExpect(books.present(new Book("", "", 11)), false)
+        && t.checkExpect(books.size(), 3)
+        && t.checkExpect(before.size(), 1)
+        && t.checkExpect(books.snapshot(), this.byPriceAVL.insert(this.fixtures.harryPotter1)
+            .insert(this.fixtures.harryPotter2).insert(this.fixtures.harryPotter3));
+  }
+
+  // tests insertAll
+  boolean testInsertAll(Tester t) {
+    ConcurrentABST<Book> books = new ConcurrentABST<Book>(
+        this.byPriceAVL.insert(this.fixtures.harryPotter1));
+    ArrayList<Book> more = new ArrayList<Book>();
+    more.add(this.fixtures.harryPotter2);
+    more.add(this.fixtures.harryPotter3);
+    books.insertAll(more);
+    return t.checkExpect(books.size(), 3)
+        && t.checkExpect(books.snapshot().getLeftMost(), this.fixtures.harryPotter3);
+  }
+
+  // tests that inserts from many threads at once are all kept
+  boolean testContendedInsert(Tester t) {
+    ConcurrentABST<Book> books = new ConcurrentABST<Book>(this.byPriceAVL);
+    ArrayList<Thread> writers = new ArrayList<Thread>();
+    for (int w = 0; w < 8; w += 1) {
+      List<Book> batch = this.fixtures.priceList(w * 1000, w * 1000 + 1000);
+      writers.add(new Thread(() -> {
+        for (Book book : batch) {
+          books.insert(book);
+        }
+      }));
+    }
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      try {
+        writer.join();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    return t.checkExpect(books.size(), 8000)
+        && t.checkExpect(books.present(new Book("", "", 7999)), true)
+        && t.checkExpect(books.snapshot().height() <= 16, true)
+        && t.checkExpect(books.pending.isEmpty(), true);
+  }
+
+  // tests that a rejected object in a queued batch fails only its own writer
+  boolean testCombineRejects(Tester t) {
+    ConcurrentABST<Book> books = new ConcurrentABST<Book>(
+        new AVLLeaf<Book>(new BooksByPositivePrice()));
+    PendingInsert<Book> good = new PendingInsert<Book>(this.fixtures.harryPotter1);
+    PendingInsert<Book> bad = new PendingInsert<Book>(new Book("", "", -1));
+    books.pending.add(good);
+    books.pending.add(bad);
+    books.combine();
+    return t.checkExpect(good.done && bad.done, true)
+        && t.checkExpect(good.failure, null)
+        && t.checkExpect(bad.failure.getMessage(), "No negative prices")
+        && t.checkExpect(books.size(), 1)
+        && t.checkExpect(books.present(this.fixtures.harryPotter1), true);
+  }
+
+  // tests that writers inserting rejected objects among good ones from many
+  // threads at once each get their exception, and no writer waits forever
+  boolean testContendedRejects(Tester t) {
+    ConcurrentABST<Book> books = new ConcurrentABST<Book>(
+        new AVLLeaf<Book>(new BooksByPositivePrice()));
+    AtomicInteger rejected = new AtomicInteger(0);
+    ArrayList<Thread> writers = new ArrayList<Thread>();
+    for (int w = 0; w < 8; w += 1) {
+      List<Book> batch = this.fixtures.priceList(w * 1000, w * 1000 + 1000);
+      writers.add(new Thread(() -> {
+        for (Book book : batch) {
+          books.insert(book);
+          if (book.price % 100 == 0) {
+            try {
+              books.insert(new Book(book.title, book.author, -1));
+            }
+            catch (RuntimeException e) {
+              rejected.incrementAndGet();
+            }
+          }
+        }
+      }));
+    }
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      try {
+        writer.join(60000);
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    boolean finished = true;
+    for (Thread writer : writers) {
+      finished = finished && !writer.isAlive();
+    }
+    return t.checkExpect(finished, true)
+        && t.checkExpect(rejected.get(), 80)
+        && t.checkExpect(books.size(), 8000)
+        && t.checkExpect(books.pending.isEmpty(), true);
+  }
+}
@@ -0,0 +1,115 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+//compares the throughput of ConcurrentABST with ConcurrentSkipListMap
+//run with: java ConcurrentABSTBenchmark [writePercent] [millis]
+//for 1 to 64 threads, every thread runs a random mix of lookups and inserts of
+//random prices for the given time against a structure preloaded with 100000
+//books; the first pass at each thread count is a warmup and is not reported
+class ConcurrentABSTBenchmark {
+  static final int PRELOAD = 100000;
+  static final int PRICES = 1000000;
+
+  // runs the benchmark
+  public static void main(String[] args) {
+    int writePercent = 10;
+    int millis = 1000;
+    if (args.length > 0) {
+      writePercent = Integer.parseInt(args[0]);
+    }
+    if (args.length > 1) {
+      millis = Integer.parseInt(args[1]);
+    }
+    System.out.println(writePercent + "% inserts, " + millis + " ms per run, in million ops/s");
+    System.out.println("threads   ConcurrentABST   ConcurrentSkipListMap");
+    for (int threads = 1; threads <= 64; threads *= 2) {
+      ConcurrentABSTBenchmark.runTree(threads, writePercent, millis / 4);
+      ConcurrentABSTBenchmark.runSkipList(threads, writePercent, millis / 4);
+      double tree = ConcurrentABSTBenchmark.runTree(threads, writePercent, millis);
+      double skipList = ConcurrentABSTBenchmark.runSkipList(threads, writePercent, millis);
+      System.out.printf("%7d %16.2f %23.2f%n", threads, tree, skipList);
+    }
+  }
+
+  // million operations per second on a ConcurrentABST
+  static double runTree(int threads, int writePercent, int millis) {
+    ArrayList<Book> preload = new ArrayList<Book>();
+    for (int i = 0; i < PRELOAD; i += 1) {
+      preload.add(ConcurrentABSTBenchmark.randomBook());
+    }
+    ConcurrentABST<Book> books = new ConcurrentABST<Book>(
+        new AVLLeaf<Book>(new BooksByPrice()));
+    books.insertAll(preload);
+    return ConcurrentABSTBenchmark.run(threads, millis, () -> {
+      Book book = ConcurrentABSTBenchmark.randomBook();
+      if (ThreadLocalRandom.current().nextInt(100) < writePercent) {
+        books.insert(book);
+      }
+      else {
+        books.present(book);
+      }
+    });
+  }
+
+  // million operations per second on a ConcurrentSkipListMap
+  static double runSkipList(int threads, int writePercent, int millis) {
+    ConcurrentSkipListMap<Book, Book> books = new ConcurrentSkipListMap<Book, Book>(
+        new BooksByPrice());
+    for (int i = 0; i < PRELOAD; i += 1) {
+      Book book = ConcurrentABSTBenchmark.randomBook();
+      books.put(book, book);
+    }
+    return ConcurrentABSTBenchmark.run(threads, millis, () -> {
+      Book book = ConcurrentABSTBenchmark.randomBook();
+      if (ThreadLocalRandom.current().nextInt(100) < writePercent) {
+        books.put(book, book);
+      }
+      else {
+        books.containsKey(book);
+      }
+    });
+  }
+
+  // runs the operation on the given number of threads for the given time
+  // and returns the million operations per second they completed together
+  static double run(int threads, int millis, Runnable operation) {
+    AtomicBoolean running = new AtomicBoolean(true);
+    LongAdder operations = new LongAdder();
+    ArrayList<Thread> workers = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i += 1) {
+      workers.add(new Thread(() -> {
+        long done = 0;
+        while (running.get()) {
+          operation.run();
+          done += 1;
+        }
+        operations.add(done);
+      }));
+    }
+    long start = System.nanoTime();
+    for (Thread worker : workers) {
+      worker.start();
+    }
+    try {
+      Thread.sleep(millis);
+      running.set(false);
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    }
+    catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    long elapsed = System.nanoTime() - start;
+    return operations.sum() * 1000.0 / elapsed;
+  }
+
+  // a book with a random price
+  static Book randomBook() {
+    int price = ThreadLocalRandom.current().nextInt(PRICES);
+    return new Book("Book", "Author", price);
+  }
+}
@@ -0,0 +1,620 @@
+import tester.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+//a tree of books that survives crashes, kept in a directory as numbered
+//generations of snapshots and write-ahead logs
+//every insert and getRight is applied to the in-memory tree and appended to
+//the current log, and returns only once the log is forced to disk; with group
+//commit on, writers that arrive while a force is running wait for it and the
+//next force covers all of them, so many writers share one fsync
+//snapshot() only sees records once they are forced; if a force fails, the
+//tree goes back to the last forced one and every later write fails
+//snapshot k holds the tree as it was before anything in log k, so a
+//checkpoint just starts log k + 1 and writes snapshot k + 1 from the
+//persistent tree of that moment, while inserts carry on into the new log;
+//recovery loads the newest complete snapshot and replays the logs from its
+//generation on, stopping at the first torn or corrupt record
+//each log record is its payload length, the CRC32 of its payload, then the
+//payload: INSERT with price, title and author, or REMOVE_LEFTMOST
+class DurableBookTree {
+  static final byte INSERT = 1;
+  static final byte REMOVE_LEFTMOST = 2;
+
+  Path dir;
+  Leaf<Book> empty;
+  boolean groupCommit;
+  int checkpointEvery;
+
+  ABST<Book> tree;
+  ABST<Book> published;
+  int generation;
+  FileChannel log;
+  ByteBuffer pending;
+  long appended;
+  long durable;
+  boolean flushing;
+  boolean checkpointing;
+  boolean failed;
+  int sinceCheckpoint;
+
+  // recovers the tree kept in the directory, or starts an empty one there
+  // a checkpoint is taken after every checkpointEvery records
+  DurableBookTree(Path dir, Leaf<Book> empty, boolean groupCommit, int checkpointEvery) {
+    this.dir = dir;
+    this.empty = empty;
+    this.groupCommit = groupCommit;
+    this.checkpointEvery = checkpointEvery;
+    this.pending = ByteBuffer.allocate(1 << 16);
+    try {
+      Files.createDirectories(dir);
+      this.recover();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not recover the tree", e);
+    }
+  }
+
+  // the snapshot file of the given generation
+  Path snapshotPath(int generation) {
+    return this.dir.resolve("books-" + generation + ".snapshot");
+  }
+
+  // the log file of the given generation
+  Path logPath(int generation) {
+    return this.dir.resolve("books-" + generation + ".log");
+  }
+
+  // the generations of the files in the directory with the given suffix
+  List<Integer> generations(String suffix) throws IOException {
+    try (Stream<Path> files = Files.list(this.dir)) {
+      return files.map(path -> path.getFileName().toString())
+          .filter(name -> name.startsWith("books-") && name.endsWith(suffix))
+          .map(name -> Integer.parseInt(name.substring(6, name.length() - suffix.length())))
+          .sorted().collect(Collectors.toList());
+    }
+  }
+
+  // loads the newest snapshot, replays the logs after it, and opens the last log
+  void recover() throws IOException {
+    List<Integer> snapshots = this.generations(".snapshot");
+    List<Integer> logs = this.generations(".log");
+    int start = 0;
+    this.tree = this.empty;
+    if (!snapshots.isEmpty()) {
+      start = snapshots.get(snapshots.size() - 1);
+      this.tree = BookSnapshot.open(this.snapshotPath(start)).toTree(this.empty);
+    }
+    this.generation = start;
+    for (int generation : logs) {
+      if (generation >= start) {
+        this.generation = generation;
+        this.replay(this.logPath(generation));
+      }
+    }
+    this.published = this.tree;
+    this.log = FileChannel.open(this.logPath(this.generation), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    this.forceDirectory();
+    this.deleteBefore(start);
+    for (int unfinished : this.generations(".snapshot.tmp")) {
+      Files.deleteIfExists(this.dir.resolve("books-" + unfinished + ".snapshot.tmp"));
+    }
+  }
+
+  // applies every complete record of the log to the tree, and cuts off the rest
+  void replay(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer bytes = ByteBuffer.allocate((int) channel.size());
+      while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+        // keep reading until the whole log is in
+      }
+      bytes.flip();
+      int valid = 0;
+      CRC32 crc = new CRC32();
+      while (bytes.remaining() >= 8) {
+        int length = bytes.getInt();
+        int sum = bytes.getInt();
+        if (length <= 0 || length > bytes.remaining()) {
+          break;
+        }
+        ByteBuffer payload = bytes.slice();
+        payload.limit(length);
+        crc.reset();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != sum) {
+          break;
+        }
+        this.apply(payload);
+        bytes.position(bytes.position() + length);
+        valid = bytes.position();
+      }
+      channel.truncate(valid);
+    }
+  }
+
+  // applies one record payload to the tree
+  void apply(ByteBuffer payload) {
+    if (payload.get() == INSERT) {
+      int price = payload.getInt();
+      String title = DurableBookTree.getString(payload);
+      String author = DurableBookTree.getString(payload);
+      this.tree = this.tree.insert(new Book(title, author, price));
+    }
+    else {
+      this.tree = this.tree.getRight();
+    }
+  }
+
+  // reads a string written by putString
+  static String getString(ByteBuffer bytes) {
+    char[] chars = new char[bytes.getInt()];
+    for (int i = 0; i < chars.length; i += 1) {
+      chars[i] = bytes.getChar();
+    }
+    return new String(chars);
+  }
+
+  // deletes the snapshots and logs of generations before the given one
+  void deleteBefore(int generation) throws IOException {
+    for (int old : this.generations(".snapshot")) {
+      if (old < generation) {
+        Files.deleteIfExists(this.snapshotPath(old));
+      }
+    }
+    for (int old : this.generations(".log")) {
+      if (old < generation) {
+        Files.deleteIfExists(this.logPath(old));
+      }
+    }
+  }
+
+  // forces the directory, so the files created or renamed in it are on disk
+  void forceDirectory() throws IOException {
+    try (FileChannel directory = FileChannel.open(this.dir, StandardOpenOption.READ)) {
+      directory.force(true);
+    }
+  }
+
+  // the tree as of the last record forced to disk, which never changes once returned
+  synchronized ABST<Book> snapshot() {
+    return this.published;
+  }
+
+  // throws if an earlier write to the log failed
+  // only called while holding the lock
+  void checkFailed() {
+    if (this.failed) {
+      throw new RuntimeException("Log failed on an earlier write");
+    }
+  }
+
+  // gives up on every record that is not on disk yet
+  // only called while holding the lock
+  void fail() {
+    this.failed = true;
+    this.tree = this.published;
+    this.pending.clear();
+  }
+
+  // inserts the book, returning once the insert is on disk
+  void insert(Book book) {
+    long record;
+    synchronized (this) {
+      this.checkFailed();
+      this.tree = this.tree.insert(book);
+      int length = 1 + 4 + 4 + 2 * book.title.length() + 4 + 2 * book.author.length();
+      ByteBuffer payload = ByteBuffer.allocate(length);
+      payload.put(INSERT);
+      payload.putInt(book.price);
+      DurableBookTree.putString(payload, book.title);
+      DurableBookTree.putString(payload, book.author);
+      record = this.append(payload);
+    }
+    this.commit(record);
+  }
+
+  // removes and returns the leftmost book, returning once the removal is on disk
+  Book removeLeftMost() {
+    long record;
+    Book leftMost;
+    synchronized (this) {
+      this.checkFailed();
+      leftMost = this.tree.getLeftMost();
+      this.tree = this.tree.getRight();
+      ByteBuffer payload = ByteBuffer.allocate(1);
+      payload.put(REMOVE_LEFTMOST);
+      record = this.append(payload);
+    }
+    this.commit(record);
+    return leftMost;
+  }
+
+  // writes the string as its length in chars followed by its chars
+  static void putString(ByteBuffer bytes, String text) {
+    bytes.putInt(text.length());
+    for (int i = 0; i < text.length(); i += 1) {
+      bytes.putChar(text.charAt(i));
+    }
+  }
+
+  // adds a record with the payload to the pending records and returns its number
+  // only called while holding the lock
+  long append(ByteBuffer payload) {
+    payload.flip();
+    CRC32 crc = new CRC32();
+    crc.update(payload.duplicate());
+    int needed = 8 + payload.remaining();
+    if (this.pending.remaining() < needed) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * this.pending.capacity(),
+          this.pending.position() + needed));
+      this.pending.flip();
+      larger.put(this.pending);
+      this.pending = larger;
+    }
+    this.pending.putInt(payload.remaining());
+    this.pending.putInt((int) crc.getValue());
+    this.pending.put(payload);
+    this.appended += 1;
+    this.sinceCheckpoint += 1;
+    return this.appended;
+  }
+
+  // returns once the given record is forced to disk, then checkpoints if it is time
+  // without group commit every record forces the log by itself; with it, one
+  // writer at a time forces every pending record, outside the lock, while the
+  // others wait for a force that covers theirs
+  void commit(long record) {
+    try {
+      if (!this.groupCommit) {
+        synchronized (this) {
+          if (this.durable < record) {
+            this.writePending();
+          }
+        }
+      }
+      else {
+        ByteBuffer batch;
+        long upTo;
+        ABST<Book> forcedTree;
+        synchronized (this) {
+          while (this.durable < record && this.flushing) {
+            this.wait();
+          }
+          this.checkFailed();
+          if (this.durable >= record) {
+            batch = null;
+            upTo = record;
+            forcedTree = null;
+          }
+          else {
+            this.flushing = true;
+            batch = this.pending;
+            upTo = this.appended;
+            forcedTree = this.tree;
+            this.pending = ByteBuffer.allocate(batch.capacity());
+          }
+        }
+        if (batch != null) {
+          boolean forced = false;
+          try {
+            batch.flip();
+            while (batch.hasRemaining()) {
+              this.log.write(batch);
+            }
+            this.log.force(false);
+            forced = true;
+          }
+          finally {
+            synchronized (this) {
+              this.flushing = false;
+              if (forced) {
+                this.durable = upTo;
+                this.published = forcedTree;
+              }
+              else {
+                this.fail();
+              }
+              this.notifyAll();
+            }
+          }
+        }
+      }
+      if (this.claimCheckpoint()) {
+        this.checkpoint();
+      }
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not write the log", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the log", e);
+    }
+  }
+
+  // writes and forces every pending record, then publishes the tree
+  // only called while holding the lock and while no other force is running
+  void writePending() throws IOException {
+    this.checkFailed();
+    boolean forced = false;
+    try {
+      this.pending.flip();
+      while (this.pending.hasRemaining()) {
+        this.log.write(this.pending);
+      }
+      this.pending.clear();
+      this.log.force(false);
+      forced = true;
+    }
+    finally {
+      if (forced) {
+        this.durable = this.appended;
+        this.published = this.tree;
+      }
+      else {
+        this.fail();
+      }
+    }
+  }
+
+  // claims the next checkpoint if enough records were appended since the last
+  // one and no checkpoint is running, resetting the count as it does
+  // the check and the claim share one locked section, so of the committers that
+  // see the count pass the threshold, exactly one takes the checkpoint
+  synchronized boolean claimCheckpoint() {
+    if (this.checkpointing || this.sinceCheckpoint < this.checkpointEvery) {
+      return false;
+    }
+    this.checkpointing = true;
+    this.sinceCheckpoint = 0;
+    return true;
+  }
+
+  // starts a new log generation and writes the snapshot that goes with it
+  // only called by the committer that claimed the checkpoint, which it gives
+  // back when done, whether or not it succeeded
+  // the new snapshot is written from the persistent tree of the moment the log
+  // was switched, so inserts carry on while it is written; older files are
+  // deleted once the rename of the snapshot is forced to disk
+  void checkpoint() {
+    ABST<Book> tree;
+    int generation;
+    try {
+      synchronized (this) {
+        while (this.flushing) {
+          this.wait();
+        }
+        this.writePending();
+        this.log.close();
+        this.generation += 1;
+        this.log = FileChannel.open(this.logPath(this.generation),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.forceDirectory();
+        tree = this.tree;
+        generation = this.generation;
+      }
+      Path written = this.dir.resolve("books-" + generation + ".snapshot.tmp");
+      BookSnapshot.write(tree, written);
+      try (FileChannel channel = FileChannel.open(written, StandardOpenOption.WRITE)) {
+        channel.force(true);
+      }
+      Files.move(written, this.snapshotPath(generation), StandardCopyOption.ATOMIC_MOVE);
+      this.forceDirectory();
+      this.deleteBefore(generation);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not write the checkpoint", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the log", e);
+    }
+    finally {
+      synchronized (this) {
+        this.checkpointing = false;
+      }
+    }
+  }
+
+  // forces everything and closes the log
+  synchronized void close() {
+    try {
+      while (this.flushing) {
+        this.wait();
+      }
+      this.writePending();
+      this.log.close();
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not write the log", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for the log", e);
+    }
+  }
+}
+
+class ExamplesDurableBookTree {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  Leaf<Book> byPrice = this.fixtures.avlLeafPrices;
+
+  // a new, empty temporary directory
+  Path newDir() {
+    try {
+      Path dir = Files.createTempDirectory("books");
+      dir.toFile().deleteOnExit();
+      return dir;
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // the names of the files in the directory, sorted
+  ArrayList<String> files(Path dir) {
+    try (Stream<Path> paths = Files.list(dir)) {
+      return paths.map(path -> path.getFileName().toString()).sorted()
+          .collect(Collectors.toCollection(ArrayList::new));
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // tests that inserts and removals are recovered from the log
+  boolean testRecoverLog(Tester t) {
+    Path dir = this.newDir();
+    DurableBookTree books = new DurableBookTree(dir, this.byPrice, true, 1000);
+    books.insert(this.fixtures.harryPotter1);
+    books.insert(this.fixtures.harryPotter2);
+    books.insert(this.fixtures.harryPotter3);
+    Book removed = books.removeLeftMost();
+    books.close();
+    DurableBookTree recovered = new DurableBookTree(dir, this.byPrice, false, 1000);
+    return t.checkExpect(removed, this.fixtures.harryPotter3)
+        && t.checkExpect(recovered.snapshot().sameData(books.snapshot()), true)
+        && t.checkExpect(recovered.snapshot().size(), 2)
+        && t.checkExpect(this.files(dir), this.names("books-0.log"));
+  }
+
+  // tests that checkpoints replace the older files and are recovered
+  boolean testCheckpoint(Tester t) {
+    Path dir = this.newDir();
+    DurableBookTree books = new DurableBookTree(dir, this.byPrice, true, 100);
+    for (Book book : this.fixtures.priceList(0, 250)) {
+      books.insert(book);
+    }
+    books.removeLeftMost();
+    books.close();
+    DurableBookTree recovered = new DurableBookTree(dir, this.byPrice, true, 100);
+    return t.checkExpect(this.files(dir), this.names("books-2.log", "books-2.snapshot"))
+        && t.checkExpect(recovered.snapshot().size(), 249)
+        && t.checkExpect(recovered.snapshot().getLeftMost().price, 1)
+        && t.checkExpect(recovered.snapshot().sameData(books.snapshot()), true);
+  }
+
+  // tests that a torn record at the end of the log is dropped
+  boolean testTornLog(Tester t) {
+    Path dir = this.newDir();
+    DurableBookTree books = new DurableBookTree(dir, this.byPrice, false, 1000);
+    books.insert(this.fixtures.harryPotter1);
+    books.insert(this.fixtures.harryPotter2);
+    books.close();
+    try {
+      Path log = dir.resolve("books-0.log");
+      byte[] bytes = Files.readAllBytes(log);
+      Files.write(log, Arrays.copyOf(bytes, bytes.length - 3));
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    DurableBookTree recovered = new DurableBookTree(dir, this.byPrice, false, 1000);
+    recovered.insert(this.fixtures.harryPotter3);
+    recovered.close();
+    DurableBookTree again = new DurableBookTree(dir, this.byPrice, false, 1000);
+    return t.checkExpect(again.snapshot().size(), 2)
+        && t.checkExpect(again.snapshot().present(this.fixtures.harryPotter2), false)
+        && t.checkExpect(again.snapshot().getLeftMost(), this.fixtures.harryPotter3);
+  }
+
+  // tests that inserts from several threads with group commit are all kept
+  boolean testGroupCommit(Tester t) {
+    Path dir = this.newDir();
+    DurableBookTree books = new DurableBookTree(dir, this.byPrice, true, 300);
+    ArrayList<Thread> writers = new ArrayList<Thread>();
+    for (int w = 0; w < 4; w += 1) {
+      List<Book> batch = this.fixtures.priceList(w * 200, w * 200 + 200);
+      writers.add(new Thread(() -> {
+        for (Book book : batch) {
+          books.insert(book);
+        }
+      }));
+    }
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      try {
+        writer.join();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    books.close();
+    DurableBookTree recovered = new DurableBookTree(dir, this.byPrice, true, 300);
+    return t.checkExpect(recovered.snapshot().size(), 800)
+        && t.checkExpect(recovered.snapshot().present(new Book("", "", 799)), true);
+  }
+
+  // tests that only one committer claims each checkpoint, and that the claim is
+  // given back once the checkpoint is written
+  boolean testClaimCheckpoint(Tester t) {
+    DurableBookTree books = new DurableBookTree(this.newDir(), this.byPrice, false, 2);
+    books.sinceCheckpoint = 2;
+    boolean first = books.claimCheckpoint();
+    int counted = books.sinceCheckpoint;
+    books.sinceCheckpoint = 2;
+    boolean whileRunning = books.claimCheckpoint();
+    books.checkpoint();
+    boolean released = !books.checkpointing;
+    boolean afterwards = books.claimCheckpoint();
+    books.close();
+    return t.checkExpect(first, true)
+        && t.checkExpect(counted, 0)
+        && t.checkExpect(whileRunning, false)
+        && t.checkExpect(released, true)
+        && t.checkExpect(afterwards, true)
+        && t.checkExpect(books.generation, 1);
+  }
+
+  // tests that a failed force leaves the tree as it was on disk and fails later writes
+  boolean testFailedWrite(Tester t) {
+    Path dir = this.newDir();
+    DurableBookTree books = new DurableBookTree(dir, this.byPrice, false, 1000);
+    DurableBookTree grouped = new DurableBookTree(this.newDir(), this.byPrice, true, 1000);
+    books.insert(this.fixtures.harryPotter1);
+    grouped.insert(this.fixtures.harryPotter1);
+    try {
+      books.log.close();
+      grouped.log.close();
+    }
+    catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    DurableBookTree recovered = new DurableBookTree(dir, this.byPrice, false, 1000);
+    return t.checkException(new RuntimeException("Could not write the log"), books, "insert",
+        this.fixtures.harryPotter2)
+        && t.checkExpect(books.snapshot().size(), 1)
+        && t.checkExpect(books.tree.size(), 1)
+        && t.checkException(new RuntimeException("Log failed on an earlier write"), books,
+            "removeLeftMost")
+        && t.checkExpect(books.snapshot().present(this.fixtures.harryPotter1), true)
+        && t.checkException(new RuntimeException("Could not write the log"), grouped,
+            "insert", this.fixtures.harryPotter2)
+        && t.checkExpect(grouped.snapshot().size(), 1)
+        && t.checkException(new RuntimeException("Log failed on an earlier write"), grouped,
+            "insert", this.fixtures.harryPotter3)
+        && t.checkExpect(recovered.snapshot().size(), 1);
+  }
+
+  // the given names as a list
+  ArrayList<String> names(String... names) {
+    return new ArrayList<String>(Arrays.asList(names));
+  }
+}
@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+//compares the insert throughput of a DurableBookTree with and without group commit
+//run with: java DurableBookTreeBenchmark [directory] [inserts]
+//for 1 to 32 writer threads, the writers share the given number of inserts
+//into a fresh tree in a new subdirectory; every insert waits for its fsync
+class DurableBookTreeBenchmark {
+  // runs the benchmark
+  public static void main(String[] args) throws IOException {
+    Path base = Files.createTempDirectory("durable");
+    int inserts = 4000;
+    if (args.length > 0) {
+      base = Files.createTempDirectory(Path.of(args[0]), "durable");
+    }
+    if (args.length > 1) {
+      inserts = Integer.parseInt(args[1]);
+    }
+    System.out.println(inserts + " inserts in " + base + ", in inserts/s");
+    System.out.println("threads   group commit   one fsync each");
+    for (int threads = 1; threads <= 32; threads *= 2) {
+      double grouped = DurableBookTreeBenchmark.run(base, threads, inserts, true);
+      double single = DurableBookTreeBenchmark.run(base, threads, inserts, false);
+      System.out.printf("%7d %14.0f %16.0f%n", threads, grouped, single);
+    }
+  }
+
+  // inserts per second of the given number of writers sharing the inserts
+  static double run(Path base, int threads, int inserts, boolean groupCommit)
+      throws IOException {
+    Path dir = Files.createTempDirectory(base, "run");
+    DurableBookTree books = new DurableBookTree(dir, new AVLLeaf<Book>(new BooksByPrice()),
+        groupCommit, 100000);
+    ArrayList<Thread> writers = new ArrayList<Thread>();
+    int each = inserts / threads;
+    for (int w = 0; w < threads; w += 1) {
+      int first = w * each;
+      writers.add(new Thread(() -> {
+        for (int i = first; i < first + each; i += 1) {
+          books.insert(new Book("Book " + i, "Author " + i % 100, i));
+        }
+      }));
+    }
+    long start = System.nanoTime();
+    for (Thread writer : writers) {
+      writer.start();
+    }
+    for (Thread writer : writers) {
+      try {
+        writer.join();
+      }
+      catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    books.close();
+    return each * threads * 1e9 / elapsed;
+  }
+}
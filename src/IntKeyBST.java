@@ -0,0 +1,360 @@
+import tester.*;
+import java.util.Iterator;
+
+//an abstract class to represent a self-balancing binary search tree of values
+//ordered by a primitive int key, such as books ordered by price
+//each node stores its key inline next to its value and compares keys with
+//plain int comparisons, so lookups never box a key, never call a Comparator
+//and never read the key out of the value; values with equal keys are kept,
+//and, as in ABST, an equal key goes to the right
+abstract class AIntBST<T> implements Iterable<T> {
+
+  // inserts the value under the given key
+  abstract AIntBST<T> insert(int key, T value);
+
+  // is there a value with the given key in the tree?
+  abstract boolean present(int key);
+
+  // a value with the given key, or null if there is none
+  abstract T get(int key);
+
+  // get the value with the smallest key
+  abstract T getLeftMost();
+
+  // get the smallest key in the tree
+  abstract int getLeftMostKey();
+
+  // returns all but the value with the smallest key
+  abstract AIntBST<T> getRight();
+
+  // how many nodes are on the longest path from this tree down to a leaf?
+  abstract int height();
+
+  // how many values are in the tree?
+  abstract int size();
+
+  // how many values have keys between lo and hi, inclusive?
+  int countInRange(int lo, int hi) {
+    if (lo > hi) {
+      return 0;
+    }
+    else {
+      return this.countBelow(hi + 1L) - this.countBelow(lo);
+    }
+  }
+
+  // how many values have keys below the given bound?
+  // the bound is a long so that one past Integer.MAX_VALUE can be asked for
+  abstract int countBelow(long bound);
+
+  // iterates over the values, in order of their keys
+  public Iterator<T> iterator() {
+    return new IntBSTIterator<T>(this, true);
+  }
+
+  // builds a list of the values, in order of their keys
+  IList<T> buildList() {
+    IList<T> result = new MtList<T>();
+    IntBSTIterator<T> values = new IntBSTIterator<T>(this, false);
+    while (values.hasNext()) {
+      result = new ConsList<T>(values.next(), result);
+    }
+    return result;
+  }
+}
+
+//represents an empty int-keyed tree
+//a single leaf is shared by every node of the trees grown from it
+class IntLeaf<T> extends AIntBST<T> {
+
+  // end of the tree, so return a node holding the key and value
+  AIntBST<T> insert(int key, T value) {
+    return new IntNode<T>(key, value, this, this);
+  }
+
+  // reached the end of the tree, so the key is not there
+  boolean present(int key) {
+    return false;
+  }
+
+  // reached the end of the tree, so there is no value
+  T get(int key) {
+    return null;
+  }
+
+  // throws an exception because there is no left value in an empty tree
+  T getLeftMost() {
+    throw new RuntimeException("No leftmost item of an empty tree");
+  }
+
+  // throws an exception because there is no left key in an empty tree
+  int getLeftMostKey() {
+    throw new RuntimeException("No leftmost item of an empty tree");
+  }
+
+  // throws an exception because there is no right of an empty tree
+  AIntBST<T> getRight() {
+    throw new RuntimeException("No right of an empty tree");
+  }
+
+  // a leaf has no nodes below it
+  int height() {
+    return 0;
+  }
+
+  // a leaf holds no values
+  int size() {
+    return 0;
+  }
+
+  // no values in a leaf
+  int countBelow(long bound) {
+    return 0;
+  }
+}
+
+//represents a node of an int-keyed tree
+//the heights of the two subtrees of every node differ by at most one
+class IntNode<T> extends AIntBST<T> {
+  int key;
+  T value;
+  AIntBST<T> left;
+  AIntBST<T> right;
+  int height;
+  int size;
+
+  IntNode(int key, T value, AIntBST<T> left, AIntBST<T> right) {
+    this.key = key;
+    this.value = value;
+    this.left = left;
+    this.right = right;
+    this.height = 1 + Math.max(left.height(), right.height());
+    this.size = left.size() + right.size() + 1;
+  }
+
+  // inserts the value on either the right or left of this node, keeping balance
+  AIntBST<T> insert(int key, T value) {
+    if (this.key > key) {
+      return IntNode.balance(this.key, this.value, this.left.insert(key, value), this.right);
+    }
+    else {
+      return IntNode.balance(this.key, this.value, this.left, this.right.insert(key, value));
+    }
+  }
+
+  // compares the keys once per level
+  boolean present(int key) {
+    if (this.key == key) {
+      return true;
+    }
+    else if (this.key > key) {
+      return this.left.present(key);
+    }
+    else {
+      return this.right.present(key);
+    }
+  }
+
+  // compares the keys once per level
+  T get(int key) {
+    if (this.key == key) {
+      return this.value;
+    }
+    else if (this.key > key) {
+      return this.left.get(key);
+    }
+    else {
+      return this.right.get(key);
+    }
+  }
+
+  // the leftmost value is at the bottom of the left spine
+  T getLeftMost() {
+    if (this.left.size() == 0) {
+      return this.value;
+    }
+    else {
+      return this.left.getLeftMost();
+    }
+  }
+
+  // the leftmost key is at the bottom of the left spine
+  int getLeftMostKey() {
+    if (this.left.size() == 0) {
+      return this.key;
+    }
+    else {
+      return this.left.getLeftMostKey();
+    }
+  }
+
+  // removes the leftmost value and rebalances on the way back up
+  AIntBST<T> getRight() {
+    if (this.left.size() == 0) {
+      return this.right;
+    }
+    else {
+      return IntNode.balance(this.key, this.value, this.left.getRight(), this.right);
+    }
+  }
+
+  // the height is computed once, when the node is built
+  int height() {
+    return this.height;
+  }
+
+  // the size is computed once, when the node is built
+  int size() {
+    return this.size;
+  }
+
+  // counts the left subtree and this node whenever the key is below the bound
+  int countBelow(long bound) {
+    if (this.key < bound) {
+      return this.left.size() + 1 + this.right.countBelow(bound);
+    }
+    else {
+      return this.left.countBelow(bound);
+    }
+  }
+
+  // builds a node holding the key and value above the given subtrees, rotating
+  // once or twice when one subtree is two levels taller than the other
+  // a subtree that is taller than its sibling is never a leaf
+  // AVLNode makes the same rotations for ABST nodes; the key is kept inline
+  // here, so a shared version could not build these nodes without boxing the
+  // key or calling back through an interface
+  static <T> AIntBST<T> balance(int key, T value, AIntBST<T> left, AIntBST<T> right) {
+    if (left.height() > right.height() + 1) {
+      IntNode<T> l = (IntNode<T>) left;
+      if (l.left.height() >= l.right.height()) {
+        return new IntNode<T>(l.key, l.value, l.left, new IntNode<T>(key, value, l.right, right));
+      }
+      IntNode<T> lr = (IntNode<T>) l.right;
+      return new IntNode<T>(lr.key, lr.value, new IntNode<T>(l.key, l.value, l.left, lr.left),
+          new IntNode<T>(key, value, lr.right, right));
+    }
+    else if (right.height() > left.height() + 1) {
+      IntNode<T> r = (IntNode<T>) right;
+      if (r.right.height() >= r.left.height()) {
+        return new IntNode<T>(r.key, r.value, new IntNode<T>(key, value, left, r.left), r.right);
+      }
+      IntNode<T> rl = (IntNode<T>) r.left;
+      return new IntNode<T>(rl.key, rl.value, new IntNode<T>(key, value, left, rl.left),
+          new IntNode<T>(r.key, r.value, rl.right, r.right));
+    }
+    else {
+      return new IntNode<T>(key, value, left, right);
+    }
+  }
+}
+
+//an in-order iterator over the values of an int-keyed tree, in order of the keys
+class IntBSTIterator<T> extends SpineIterator<AIntBST<T>, IntNode<T>, T> {
+
+  IntBSTIterator(AIntBST<T> tree, boolean ascending) {
+    super(ascending);
+    this.pushSpine(tree);
+  }
+
+  // the leaf is the only subtree that is not an IntNode
+  IntNode<T> node(AIntBST<T> tree) {
+    if (tree instanceof IntNode) {
+      return (IntNode<T>) tree;
+    }
+    else {
+      return null;
+    }
+  }
+
+  // the left subtree of the node
+  AIntBST<T> left(IntNode<T> node) {
+    return node.left;
+  }
+
+  // the right subtree of the node
+  AIntBST<T> right(IntNode<T> node) {
+    return node.right;
+  }
+
+  // an int node holds its value; the key is only for ordering
+  T item(IntNode<T> node) {
+    return node.value;
+  }
+}
+
+class ExamplesIntBST {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  AIntBST<Book> empty = new IntLeaf<Book>();
+  // books by price: harryPotter3 (9), harryPotter1 (10), harryPotter6 (10),
+  // harryPotter2 (12)
+  AIntBST<Book> prices = this.empty
+      .insert(this.fixtures.harryPotter1.price, this.fixtures.harryPotter1)
+      .insert(this.fixtures.harryPotter2.price, this.fixtures.harryPotter2)
+      .insert(this.fixtures.harryPotter3.price, this.fixtures.harryPotter3)
+      .insert(this.fixtures.harryPotter6.price, this.fixtures.harryPotter6);
+
+  // a tree of n books keyed by their prices 0 to n - 1, inserted in ascending order
+  AIntBST<Book> sortedPrices(int n) {
+    AIntBST<Book> tree = this.empty;
+    for (Book book : this.fixtures.priceList(0, n)) {
+      tree = tree.insert(book.price, book);
+    }
+    return tree;
+  }
+
+  // tests insert
+  boolean testInsert(Tester t) {
+    return t.checkExpect(this.empty.insert(9, this.fixtures.harryPotter3),
+        new IntNode<Book>(9, this.fixtures.harryPotter3, this.empty, this.empty))
+        && t.checkExpect(this.empty.insert(10, this.fixtures.harryPotter1)
+            .insert(9, this.fixtures.harryPotter3).insert(12, this.fixtures.harryPotter2),
+            this.empty.insert(9, this.fixtures.harryPotter3)
+                .insert(10, this.fixtures.harryPotter1).insert(12, this.fixtures.harryPotter2))
+        && t.checkExpect(this.prices.size(), 4)
+        && t.checkExpect(this.sortedPrices(1023).height(), 10);
+  }
+
+  // tests present and get
+  boolean testPresent(Tester t) {
+    return t.checkExpect(this.prices.present(12), true)
+        && t.checkExpect(this.prices.present(11), false)
+        && t.checkExpect(this.empty.present(11), false)
+        && t.checkExpect(this.prices.get(9), this.fixtures.harryPotter3)
+        && t.checkExpect(this.prices.get(13), null)
+        && t.checkExpect(this.sortedPrices(5000).get(4321).price, 4321);
+  }
+
+  // tests getLeftMost, getLeftMostKey and getRight
+  boolean testGetRight(Tester t) {
+    return t.checkExpect(this.prices.getLeftMost(), this.fixtures.harryPotter3)
+        && t.checkExpect(this.prices.getLeftMostKey(), 9)
+        && t.checkExpect(this.prices.getRight().getLeftMost(), this.fixtures.harryPotter1)
+        && t.checkExpect(this.prices.getRight().getRight().getLeftMost(),
+            this.fixtures.harryPotter6)
+        && t.checkExpect(this.sortedPrices(1000).getRight().getLeftMostKey(), 1)
+        && t.checkException(new RuntimeException("No right of an empty tree"), this.empty,
+            "getRight")
+        && t.checkException(new RuntimeException("No leftmost item of an empty tree"),
+            this.empty, "getLeftMost");
+  }
+
+  // tests countInRange
+  boolean testCountInRange(Tester t) {
+    return t.checkExpect(this.prices.countInRange(10, 12), 3)
+        && t.checkExpect(this.prices.countInRange(10, 10), 2)
+        && t.checkExpect(this.prices.countInRange(13, 10), 0)
+        && t.checkExpect(this.prices.countInRange(Integer.MIN_VALUE, Integer.MAX_VALUE), 4);
+  }
+
+  // tests buildList and iteration
+  boolean testBuildList(Tester t) {
+    return t.checkExpect(this.prices.buildList(), new ConsList<Book>(this.fixtures.harryPotter3,
+        new ConsList<Book>(this.fixtures.harryPotter1,
+            new ConsList<Book>(this.fixtures.harryPotter6,
+                new ConsList<Book>(this.fixtures.harryPotter2, new MtList<Book>())))))
+        && t.checkExpect(this.empty.buildList(), new MtList<Book>())
+        && t.checkExpect(this.prices.iterator().next(), this.fixtures.harryPotter3);
+  }
+}
@@ -0,0 +1,138 @@
+import java.util.concurrent.RecursiveTask;
+
+//a set operation on two binary search trees, built from split and join
+//each step splits the other tree at the root of one tree, solves the two
+//halves independently and joins them back together, so on balanced trees of
+//sizes m <= n the work is O(m log(n/m + 1)); halves of large inputs run in
+//parallel on the fork-join pool, and subtrees the result keeps whole are shared
+abstract class SetOperationTask<T> extends RecursiveTask<ABST<T>> {
+  static final long serialVersionUID = 1L;
+
+  // inputs with at least this many objects between them solve their halves in parallel
+  static final int PARALLEL_THRESHOLD = 1 << 12;
+
+  Leaf<T> empty;
+  ABST<T> these;
+  ABST<T> those;
+
+  SetOperationTask(Leaf<T> empty, ABST<T> these, ABST<T> those) {
+    this.empty = empty;
+    this.these = these;
+    this.those = those;
+  }
+
+  // the same operation on another pair of subtrees
+  abstract SetOperationTask<T> on(ABST<T> these, ABST<T> those);
+
+  // solves the operation on both pairs of halves, in parallel when they are large
+  // the results are then available from join
+  void solveHalves(SetOperationTask<T> left, SetOperationTask<T> right) {
+    if (this.these.size() + this.those.size() >= PARALLEL_THRESHOLD) {
+      invokeAll(left, right);
+    }
+    else {
+      left.invoke();
+      right.invoke();
+    }
+  }
+
+  // joins two trees where every object of below comes before every object of above
+  // below is joined in at the bottom of above's left spine, so every node keeps
+  // all the objects it holds
+  ABST<T> concat(ABST<T> below, ABST<T> above) {
+    if (!(above instanceof Node)) {
+      return below;
+    }
+    Node<T> root = (Node<T>) above;
+    return root.join(this.concat(below, root.left), root.right);
+  }
+}
+
+//the union of two binary search trees
+class UnionTask<T> extends SetOperationTask<T> {
+  static final long serialVersionUID = 1L;
+
+  UnionTask(Leaf<T> empty, ABST<T> these, ABST<T> those) {
+    super(empty, these, those);
+  }
+
+  // the union of another pair of subtrees
+  SetOperationTask<T> on(ABST<T> these, ABST<T> those) {
+    return new UnionTask<T>(this.empty, these, those);
+  }
+
+  // splits the other tree at our root and unites the halves
+  protected ABST<T> compute() {
+    if (!(this.these instanceof Node)) {
+      return this.those;
+    }
+    if (!(this.those instanceof Node)) {
+      return this.these;
+    }
+    Node<T> root = (Node<T>) this.these;
+    Split<T> split = this.those.split(root.data);
+    SetOperationTask<T> left = this.on(root.left, split.below);
+    SetOperationTask<T> right = this.on(root.right, split.above);
+    this.solveHalves(left, right);
+    return root.join(left.join(), right.join());
+  }
+}
+
+//the intersection of two binary search trees
+class IntersectionTask<T> extends SetOperationTask<T> {
+  static final long serialVersionUID = 1L;
+
+  IntersectionTask(Leaf<T> empty, ABST<T> these, ABST<T> those) {
+    super(empty, these, those);
+  }
+
+  // the intersection of another pair of subtrees
+  SetOperationTask<T> on(ABST<T> these, ABST<T> those) {
+    return new IntersectionTask<T>(this.empty, these, those);
+  }
+
+  // splits the other tree at our root, keeping the root only if it was found there
+  protected ABST<T> compute() {
+    if (!(this.these instanceof Node) || !(this.those instanceof Node)) {
+      return this.empty;
+    }
+    Node<T> root = (Node<T>) this.these;
+    Split<T> split = this.those.split(root.data);
+    SetOperationTask<T> left = this.on(root.left, split.below);
+    SetOperationTask<T> right = this.on(root.right, split.above);
+    this.solveHalves(left, right);
+    if (split.found) {
+      return root.join(left.join(), right.join());
+    }
+    else {
+      return this.concat(left.join(), right.join());
+    }
+  }
+}
+
+//the difference of two binary search trees
+class DifferenceTask<T> extends SetOperationTask<T> {
+  static final long serialVersionUID = 1L;
+
+  DifferenceTask(Leaf<T> empty, ABST<T> these, ABST<T> those) {
+    super(empty, these, those);
+  }
+
+  // the difference of another pair of subtrees
+  SetOperationTask<T> on(ABST<T> these, ABST<T> those) {
+    return new DifferenceTask<T>(this.empty, these, those);
+  }
+
+  // splits our tree at the other root, which is dropped along with everything equal to it
+  protected ABST<T> compute() {
+    if (!(this.these instanceof Node) || !(this.those instanceof Node)) {
+      return this.these;
+    }
+    Node<T> root = (Node<T>) this.those;
+    Split<T> split = this.these.split(root.data);
+    SetOperationTask<T> left = this.on(split.below, root.left);
+    SetOperationTask<T> right = this.on(split.above, root.right);
+    this.solveHalves(left, right);
+    return this.concat(left.join(), right.join());
+  }
+}
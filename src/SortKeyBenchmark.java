@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+//compares BooksByTitle with BooksByTitleKey on balanced trees of books
+//run with: java SortKeyBenchmark [count] [rounds]
+//it runs on two sets of titles: random letters, which almost never share nine
+//chars, and six words out of sixteen, which share nine chars with thousands of
+//other titles; each round inserts every book in a random order and looks every
+//book up in another, and the best time of all the rounds is reported
+class SortKeyBenchmark {
+  static final String[] WORDS = { "the", "a", "of", "secret", "garden", "night", "river",
+      "stone", "house", "winter", "dragon", "last", "silent", "city", "fire", "queen" };
+
+  // runs the benchmark
+  public static void main(String[] args) {
+    int count = 1000000;
+    int rounds = 5;
+    if (args.length > 0) {
+      count = Integer.parseInt(args[0]);
+    }
+    if (args.length > 1) {
+      rounds = Integer.parseInt(args[1]);
+    }
+    System.out.println(count + " books, best of " + rounds + " rounds, in ms");
+    System.out.println("                            insert    present");
+    SortKeyBenchmark.compare("letters", count, rounds, false);
+    SortKeyBenchmark.compare("words", count, rounds, true);
+  }
+
+  // times both comparators on one set of titles
+  static void compare(String name, int count, int rounds, boolean words) {
+    Random random = new Random(1);
+    List<Book> inserts = new ArrayList<Book>();
+    for (int i = 0; i < count; i += 1) {
+      StringBuilder title = new StringBuilder();
+      for (int w = 0; w < 6; w += 1) {
+        if (words) {
+          title.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        else {
+          title.append((char) ('a' + random.nextInt(26)));
+        }
+        title.append(' ');
+      }
+      inserts.add(new Book(title.append(i).toString(), "Author", i));
+    }
+    List<Book> lookups = new ArrayList<Book>(inserts);
+    Collections.shuffle(lookups, random);
+
+    long[] plain = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+    long[] keyed = new long[] { Long.MAX_VALUE, Long.MAX_VALUE };
+    for (int round = 0; round < rounds; round += 1) {
+      SortKeyBenchmark.best(plain, SortKeyBenchmark.run(new BooksByTitle(), inserts, lookups));
+      SortKeyBenchmark.best(keyed,
+          SortKeyBenchmark.run(new BooksByTitleKey(), inserts, lookups));
+    }
+    System.out.printf("%-25s %9.1f %10.1f%n", name + ", BooksByTitle", plain[0] / 1e6,
+        plain[1] / 1e6);
+    System.out.printf("%-25s %9.1f %10.1f%n", name + ", BooksByTitleKey", keyed[0] / 1e6,
+        keyed[1] / 1e6);
+  }
+
+  // times inserting and looking up every book in a tree with the given order
+  static long[] run(Comparator<Book> order, List<Book> inserts, List<Book> lookups) {
+    long start = System.nanoTime();
+    ABST<Book> tree = new AVLLeaf<Book>(order);
+    for (Book book : inserts) {
+      tree = tree.insert(book);
+    }
+    long inserted = System.nanoTime();
+    int found = 0;
+    for (Book book : lookups) {
+      if (tree.present(book)) {
+        found += 1;
+      }
+    }
+    long looked = System.nanoTime();
+    if (found != lookups.size()) {
+      throw new RuntimeException("Benchmark lost some books");
+    }
+    return new long[] { inserted - start, looked - inserted };
+  }
+
+  // keeps the smaller of each pair of times in best
+  static void best(long[] best, long[] times) {
+    for (int i = 0; i < best.length; i += 1) {
+      best[i] = Math.min(best[i], times[i]);
+    }
+  }
+}
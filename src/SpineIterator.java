@@ -0,0 +1,67 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+//an in-order iterator over a tree whose subtrees are S and whose nodes are N,
+//holding one object each
+//it keeps the nodes still to be visited on a stack, as ABSTIterator does;
+//subclasses only say how to tell a node from a leaf, how to step down from a
+//node, and what it holds, so an engine that lays its nodes out differently,
+//as AIntBST does, gets the traversal without copying it; ABSTIterator keeps
+//its own, since its nodes may hold a bucket of objects and it steps through
+//each one
+abstract class SpineIterator<S, N, T> implements Iterator<T> {
+  ArrayDeque<N> stack;
+  boolean ascending;
+
+  SpineIterator(boolean ascending) {
+    this.stack = new ArrayDeque<N>();
+    this.ascending = ascending;
+  }
+
+  // the subtree as a node, or null if it is a leaf
+  abstract N node(S tree);
+
+  // the left subtree of the node
+  abstract S left(N node);
+
+  // the right subtree of the node
+  abstract S right(N node);
+
+  // the object the node holds
+  abstract T item(N node);
+
+  // pushes the nodes on the path to the first object of the given tree
+  void pushSpine(S tree) {
+    N node = this.node(tree);
+    while (node != null) {
+      this.stack.push(node);
+      if (this.ascending) {
+        node = this.node(this.left(node));
+      }
+      else {
+        node = this.node(this.right(node));
+      }
+    }
+  }
+
+  // are there any objects left to visit?
+  public boolean hasNext() {
+    return !this.stack.isEmpty();
+  }
+
+  // returns the next object in order
+  public T next() {
+    if (this.stack.isEmpty()) {
+      throw new NoSuchElementException("No next item of a finished traversal");
+    }
+    N node = this.stack.pop();
+    if (this.ascending) {
+      this.pushSpine(this.right(node));
+    }
+    else {
+      this.pushSpine(this.left(node));
+    }
+    return this.item(node);
+  }
+}
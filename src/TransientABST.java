@@ -0,0 +1,239 @@
+import tester.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+//a mutable, single-owner builder over a binary search tree, for batches of inserts
+//nodes the builder copied or created itself are updated in place instead of
+//being copied again on every insert; nodes of the original tree are copied the
+//first time an insert passes through them, so the original never changes and
+//the frozen result shares every untouched subtree with it
+class TransientABST<T> {
+  ABST<T> root;
+  Set<Node<T>> owned;
+  ArrayList<Node<T>> path;
+  Thread owner;
+
+  TransientABST(ABST<T> root) {
+    this.root = root;
+    this.owned = Collections.newSetFromMap(new IdentityHashMap<Node<T>, Boolean>());
+    this.path = new ArrayList<Node<T>>();
+    this.owner = Thread.currentThread();
+  }
+
+  // inserts the object where it belongs, updating owned nodes in place
+  TransientABST<T> insert(T object) {
+    this.checkEditable();
+    if (!(this.root instanceof Node)) {
+      this.root = this.fresh(this.root.insert(object));
+      return this;
+    }
+    Node<T> node = this.own((Node<T>) this.root);
+    this.root = node;
+    this.path.clear();
+    boolean atLeaf = false;
+    while (!atLeaf) {
+      this.path.add(node);
+      int comp = this.root.order.compare(node.data, object);
+      if (comp == 0 && node instanceof BucketNode) {
+        BucketNode<T> bucket = (BucketNode<T>) node;
+        bucket.add(object);
+        break;
+      }
+      boolean goLeft = comp > 0;
+      ABST<T> child;
+      if (goLeft) {
+        child = node.left;
+      }
+      else {
+        child = node.right;
+      }
+      atLeaf = !(child instanceof Node);
+      Node<T> next;
+      if (atLeaf) {
+        next = this.fresh(child.insert(object));
+      }
+      else {
+        next = this.own((Node<T>) child);
+      }
+      if (goLeft) {
+        node.left = next;
+      }
+      else {
+        node.right = next;
+      }
+      node = next;
+    }
+    this.fixPath();
+    return this;
+  }
+
+  // inserts every object of the batch
+  TransientABST<T> insertAll(Iterable<T> objects) {
+    for (T object : objects) {
+      this.insert(object);
+    }
+    return this;
+  }
+
+  // is the object in the tree built so far?
+  boolean present(T object) {
+    this.checkEditable();
+    return this.root.present(object);
+  }
+
+  // freezes the builder into an immutable tree
+  // the builder cannot be used afterwards, so the tree can never change again
+  ABST<T> persistent() {
+    this.checkEditable();
+    this.owner = null;
+    this.owned.clear();
+    return this.root;
+  }
+
+  // throws if the builder was frozen or is used from another thread
+  void checkEditable() {
+    if (this.owner == null) {
+      throw new RuntimeException("Transient tree used after persistent");
+    }
+    if (this.owner != Thread.currentThread()) {
+      throw new RuntimeException("Transient tree used by a thread that does not own it");
+    }
+  }
+
+  // records a node this builder just created, so it can be updated in place
+  Node<T> fresh(ABST<T> tree) {
+    Node<T> node = (Node<T>) tree;
+    this.owned.add(node);
+    return node;
+  }
+
+  // returns a node this builder may update in place: the node itself if the
+  // builder already owns it, otherwise a copy of it
+  Node<T> own(Node<T> node) {
+    if (this.owned.contains(node)) {
+      return node;
+    }
+    else {
+      return this.fresh(node.with(node.left, node.right));
+    }
+  }
+
+  // refreshes the nodes on the last insert path from the bottom up,
+  // rebalancing balanced trees and relinking any rotated subtree
+  void fixPath() {
+    for (int i = this.path.size() - 1; i >= 0; i -= 1) {
+      Node<T> node = this.path.get(i);
+      Node<T> fixed = this.rebalance(node);
+      if (i == 0) {
+        this.root = fixed;
+      }
+      else if (this.path.get(i - 1).left == node) {
+        this.path.get(i - 1).left = fixed;
+      }
+      else {
+        this.path.get(i - 1).right = fixed;
+      }
+    }
+  }
+
+  // recomputes what the owned node caches about its subtrees
+  void update(Node<T> node) {
+    node.height = 1 + Math.max(node.left.height(), node.right.height());
+    node.size = node.left.size() + node.right.size() + node.bucketSize();
+  }
+
+  // updates the owned node and, in a balanced tree, rotates it back into balance
+  // returns the node now at the top of its subtree
+  Node<T> rebalance(Node<T> node) {
+    this.update(node);
+    if (!(node instanceof AVLNode)) {
+      return node;
+    }
+    int balance = node.left.height() - node.right.height();
+    if (balance > 1) {
+      Node<T> left = this.own((Node<T>) node.left);
+      node.left = left;
+      if (left.right.height() > left.left.height()) {
+        node.left = this.rotateLeft(left);
+      }
+      return this.rotateRight(node);
+    }
+    else if (balance < -1) {
+      Node<T> right = this.own((Node<T>) node.right);
+      node.right = right;
+      if (right.left.height() > right.right.height()) {
+        node.right = this.rotateRight(right);
+      }
+      return this.rotateLeft(node);
+    }
+    else {
+      return node;
+    }
+  }
+
+  // moves the owned node's right child up above it, in place
+  Node<T> rotateLeft(Node<T> node) {
+    Node<T> right = this.own((Node<T>) node.right);
+    node.right = right.left;
+    right.left = node;
+    this.update(node);
+    this.update(right);
+    return right;
+  }
+
+  // moves the owned node's left child up above it, in place
+  Node<T> rotateRight(Node<T> node) {
+    Node<T> left = this.own((Node<T>) node.left);
+    node.left = left.right;
+    left.right = node;
+    this.update(node);
+    this.update(left);
+    return left;
+  }
+}
+
+class ExamplesTransientABST {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  Leaf<Book> byPrice = this.fixtures.leafCompPrices;
+  Leaf<Book> byPriceAVL = this.fixtures.avlLeafPrices;
+
+  // tests that a batch gives the same tree as inserting one at a time
+  boolean testInsert(Tester t) {
+    Book hp1 = this.fixtures.harryPotter1;
+    Book hp2 = this.fixtures.harryPotter2;
+    Book hp3 = this.fixtures.harryPotter3;
+    return t.checkExpect(this.byPrice.asTransient().insert(hp1).insert(hp3).insert(hp2)
+        .persistent(), this.byPrice.insert(hp1).insert(hp3).insert(hp2))
+        && t.checkExpect(this.byPriceAVL.asTransient().insert(hp3).insert(hp1).insert(hp2)
+            .persistent(), this.byPriceAVL.insert(hp3).insert(hp1).insert(hp2))
+        && t.checkExpect(this.byPriceAVL.asTransient().insert(hp2).insert(hp3).insert(hp1)
+            .persistent(), this.byPriceAVL.insert(hp2).insert(hp3).insert(hp1));
+  }
+
+  // tests large batches on balanced trees
+  boolean testInsertAll(Tester t) {
+    ABST<Book> tree = this.byPriceAVL.asTransient().insertAll(this.fixtures.priceList(0, 4095))
+        .persistent();
+    return t.checkExpect(tree.height(), 12)
+        && t.checkExpect(tree.sameData(new BulkLoader<Book>(this.byPrice)
+            .fromSorted(this.fixtures.priceList(0, 4095))), true)
+        && t.checkExpect(tree.present(new Book("", "", 4000)), true);
+  }
+
+  // tests that the original tree is shared, not changed
+  boolean testSharing(Tester t) {
+    ABST<Book> original = this.byPriceAVL.insert(this.fixtures.harryPotter3)
+        .insert(this.fixtures.harryPotter1).insert(this.fixtures.harryPotter2);
+    TransientABST<Book> batch = original.asTransient().insert(new Book("", "", 20));
+    ABST<Book> result = batch.insert(new Book("", "", 30)).persistent();
+    return t.checkExpect(original.height(), 2)
+        && t.checkExpect(original.present(new Book("", "", 20)), false)
+        && t.checkExpect(result.present(new Book("", "", 30)), true)
+        && t.checkExpect(((Node<Book>) result).left == ((Node<Book>) original).left, true)
+        && t.checkException(new RuntimeException("Transient tree used after persistent"),
+            batch, "insert", this.fixtures.harryPotter1);
+  }
+}
@@ -0,0 +1,512 @@
+import tester.*;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+//opt-in measurements of what tree operations cost: comparator calls and new
+//nodes per operation, how deep each lookup went and how tall the tree was
+//comparisons are counted by a CountingComparator given to the tree's leaf,
+//which adds to a count kept per thread, so an InstrumentedABST learns what one
+//operation cost from the count before and after it, even while other threads
+//work on other trees; new nodes are counted by the InstrumentedABST itself,
+//from the nodes of the result that the tree it started from does not share,
+//so the trees themselves know nothing of the metrics; each TreeMetrics is
+//enabled on its own, and while it is disabled, which is the default, the only
+//cost left on the hot path is one read of its flag per operation and per
+//comparison; the totals are exposed over JMX, and every operation is also a
+//JFR event while a recording asks for ABST.TreeOperation
+class TreeMetrics implements TreeMetricsMBean {
+  static final int INSERT = 0;
+  static final int PRESENT = 1;
+  static final int GET_LEFT_MOST = 2;
+  static final int GET_RIGHT = 3;
+  static final String[] OPERATIONS = { "insert", "present", "getLeftMost", "getRight" };
+
+  // depths and heights at or past the last bucket share it
+  static final int HISTOGRAM_SIZE = 64;
+
+  // the comparisons counted on each thread
+  static final ThreadLocal<long[]> COMPARISONS = ThreadLocal.withInitial(() -> new long[1]);
+
+  // are the trees recording into these metrics?
+  volatile boolean enabled;
+
+  LongAdder[] calls;
+  LongAdder[] comparisons;
+  LongAdder[] nodes;
+  AtomicLongArray depths;
+  AtomicLongArray heights;
+
+  TreeMetrics() {
+    this.enabled = false;
+    this.calls = TreeMetrics.adders();
+    this.comparisons = TreeMetrics.adders();
+    this.nodes = TreeMetrics.adders();
+    this.depths = new AtomicLongArray(HISTOGRAM_SIZE);
+    this.heights = new AtomicLongArray(HISTOGRAM_SIZE);
+  }
+
+  // one adder per operation
+  static LongAdder[] adders() {
+    LongAdder[] adders = new LongAdder[OPERATIONS.length];
+    for (int i = 0; i < adders.length; i += 1) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  // counts one comparison on this thread
+  static void countComparison() {
+    TreeMetrics.COMPARISONS.get()[0] += 1;
+  }
+
+  // records one operation; a depth or height below 0 was not measured
+  void record(int operation, long comparisons, long nodes, int depth, int height) {
+    this.calls[operation].increment();
+    this.comparisons[operation].add(comparisons);
+    this.nodes[operation].add(nodes);
+    if (depth >= 0) {
+      this.depths.incrementAndGet(Math.min(depth, HISTOGRAM_SIZE - 1));
+    }
+    if (height >= 0) {
+      this.heights.incrementAndGet(Math.min(height, HISTOGRAM_SIZE - 1));
+    }
+  }
+
+  // registers these metrics with the platform MBean server under the given name
+  ObjectName register(String name) {
+    try {
+      ObjectName objectName = new ObjectName("ABST:type=TreeMetrics,name=" + name);
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+      return objectName;
+    }
+    catch (JMException e) {
+      throw new RuntimeException("Could not register the tree metrics", e);
+    }
+  }
+
+  // removes the metrics registered under the given name
+  static void unregister(ObjectName objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    }
+    catch (JMException e) {
+      throw new RuntimeException("Could not unregister the tree metrics", e);
+    }
+  }
+
+  // is instrumentation recording?
+  public boolean isEnabled() {
+    return this.enabled;
+  }
+
+  // turns instrumentation on or off for the trees recording into these metrics
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  // the names of the recorded operations
+  public String[] getOperations() {
+    return OPERATIONS.clone();
+  }
+
+  // how many times each operation ran while recording
+  public long[] getCalls() {
+    return TreeMetrics.sums(this.calls);
+  }
+
+  // how many comparator calls each operation made in all
+  public long[] getComparisons() {
+    return TreeMetrics.sums(this.comparisons);
+  }
+
+  // how many nodes each operation allocated in all
+  public long[] getNodesAllocated() {
+    return TreeMetrics.sums(this.nodes);
+  }
+
+  // the average number of comparator calls per call of each operation
+  public double[] getComparisonsPerCall() {
+    return TreeMetrics.perCall(this.getComparisons(), this.getCalls());
+  }
+
+  // the average number of nodes allocated per call of each operation
+  public double[] getNodesPerCall() {
+    return TreeMetrics.perCall(this.getNodesAllocated(), this.getCalls());
+  }
+
+  // how many lookups visited each number of nodes, from 0 up
+  public long[] getDepthHistogram() {
+    return TreeMetrics.snapshot(this.depths);
+  }
+
+  // how many times the tree was seen at each height, from 0 up
+  public long[] getHeightHistogram() {
+    return TreeMetrics.snapshot(this.heights);
+  }
+
+  // forgets everything recorded so far
+  public void reset() {
+    for (int i = 0; i < OPERATIONS.length; i += 1) {
+      this.calls[i].reset();
+      this.comparisons[i].reset();
+      this.nodes[i].reset();
+    }
+    for (int i = 0; i < HISTOGRAM_SIZE; i += 1) {
+      this.depths.set(i, 0);
+      this.heights.set(i, 0);
+    }
+  }
+
+  // the current sums of the adders
+  static long[] sums(LongAdder[] adders) {
+    long[] sums = new long[adders.length];
+    for (int i = 0; i < adders.length; i += 1) {
+      sums[i] = adders[i].sum();
+    }
+    return sums;
+  }
+
+  // each total divided by its number of calls, or 0 where there were none
+  static double[] perCall(long[] totals, long[] calls) {
+    double[] averages = new double[totals.length];
+    for (int i = 0; i < totals.length; i += 1) {
+      if (calls[i] > 0) {
+        averages[i] = (double) totals[i] / calls[i];
+      }
+    }
+    return averages;
+  }
+
+  // a copy of the histogram
+  static long[] snapshot(AtomicLongArray histogram) {
+    long[] counts = new long[histogram.length()];
+    for (int i = 0; i < counts.length; i += 1) {
+      counts[i] = histogram.get(i);
+    }
+    return counts;
+  }
+}
+
+//a comparator that counts its calls while the given metrics are enabled
+//give it to the tree's leaf to have an InstrumentedABST count comparisons
+class CountingComparator<T> implements Comparator<T> {
+  Comparator<T> order;
+  TreeMetrics metrics;
+
+  CountingComparator(Comparator<T> order, TreeMetrics metrics) {
+    this.order = order;
+    this.metrics = metrics;
+  }
+
+  // compares with the wrapped comparator, counting the call
+  public int compare(T o1, T o2) {
+    if (this.metrics.enabled) {
+      TreeMetrics.countComparison();
+    }
+    return this.order.compare(o1, o2);
+  }
+}
+
+//a JFR event for one instrumented tree operation
+@Name("ABST.TreeOperation")
+@Label("Tree Operation")
+@Category("ABST")
+@Description("One insert, present, getLeftMost or getRight on an instrumented tree")
+class TreeOperationEvent extends Event {
+  @Label("Operation")
+  String operation;
+
+  @Label("Comparisons")
+  long comparisons;
+
+  @Label("Nodes Allocated")
+  long nodes;
+
+  @Label("Depth")
+  int depth;
+
+  @Label("Height")
+  int height;
+}
+
+//a binary search tree whose operations are recorded in a TreeMetrics
+//while instrumentation is disabled every operation goes straight to the tree;
+//while it is enabled, each operation records the comparisons and new nodes it
+//cost, lookups record how many nodes they visited, and insert and getRight
+//record the height of the tree they return
+class InstrumentedABST<T> {
+  ABST<T> tree;
+  TreeMetrics metrics;
+
+  InstrumentedABST(ABST<T> tree, TreeMetrics metrics) {
+    this.tree = tree;
+    this.metrics = metrics;
+  }
+
+  // inserts the object where it belongs
+  InstrumentedABST<T> insert(T object) {
+    if (!this.metrics.enabled) {
+      return new InstrumentedABST<T>(this.tree.insert(object), this.metrics);
+    }
+    TreeOperationEvent event = new TreeOperationEvent();
+    event.begin();
+    long[] counts = TreeMetrics.COMPARISONS.get();
+    long comparisons = counts[0];
+    ABST<T> result = this.tree.insert(object);
+    long cost = counts[0] - comparisons;
+    this.record(event, TreeMetrics.INSERT, cost, this.allocated(result), -1, result.height());
+    return new InstrumentedABST<T>(result, this.metrics);
+  }
+
+  // is the object in the tree?
+  boolean present(T object) {
+    if (!this.metrics.enabled) {
+      return this.tree.present(object);
+    }
+    TreeOperationEvent event = new TreeOperationEvent();
+    event.begin();
+    long[] counts = TreeMetrics.COMPARISONS.get();
+    long comparisons = counts[0];
+    boolean found = this.tree.present(object);
+    long cost = counts[0] - comparisons;
+    this.record(event, TreeMetrics.PRESENT, cost, 0, this.depth(object), -1);
+    return found;
+  }
+
+  // get the leftmost object contained in the tree
+  T getLeftMost() {
+    if (!this.metrics.enabled) {
+      return this.tree.getLeftMost();
+    }
+    TreeOperationEvent event = new TreeOperationEvent();
+    event.begin();
+    long[] counts = TreeMetrics.COMPARISONS.get();
+    long comparisons = counts[0];
+    T leftMost = this.tree.getLeftMost();
+    long cost = counts[0] - comparisons;
+    this.record(event, TreeMetrics.GET_LEFT_MOST, cost, 0, this.leftSpine(), -1);
+    return leftMost;
+  }
+
+  // returns all but the leftmost object in the tree
+  InstrumentedABST<T> getRight() {
+    if (!this.metrics.enabled) {
+      return new InstrumentedABST<T>(this.tree.getRight(), this.metrics);
+    }
+    TreeOperationEvent event = new TreeOperationEvent();
+    event.begin();
+    long[] counts = TreeMetrics.COMPARISONS.get();
+    long comparisons = counts[0];
+    ABST<T> result = this.tree.getRight();
+    long cost = counts[0] - comparisons;
+    this.record(event, TreeMetrics.GET_RIGHT, cost, this.allocated(result), -1,
+        result.height());
+    return new InstrumentedABST<T>(result, this.metrics);
+  }
+
+  // how many objects are in the tree?
+  int size() {
+    return this.tree.size();
+  }
+
+  // records the operation in the metrics and, if a recording wants it, in JFR
+  void record(TreeOperationEvent event, int operation, long comparisons, long nodes,
+      int depth, int height) {
+    this.metrics.record(operation, comparisons, nodes, depth, height);
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = TreeMetrics.OPERATIONS[operation];
+      event.comparisons = comparisons;
+      event.nodes = nodes;
+      event.depth = depth;
+      event.height = height;
+      event.commit();
+    }
+  }
+
+  // how many nodes a search for the object visits, including the one that
+  // holds it; measured after the search, so its comparisons are not recorded
+  int depth(T object) {
+    int depth = 0;
+    ABST<T> tree = this.tree;
+    while (tree instanceof Node) {
+      Node<T> node = (Node<T>) tree;
+      depth += 1;
+      int comp = node.order.compare(node.data, object);
+      if (comp == 0) {
+        return depth;
+      }
+      else if (comp > 0) {
+        tree = node.left;
+      }
+      else {
+        tree = node.right;
+      }
+    }
+    return depth;
+  }
+
+  // how many nodes of the result are not nodes of this tree, which are the
+  // nodes the operation built; the result shares every subtree the operation
+  // did not touch, so the walk stops at each node this tree holds; measured
+  // after the operation, so its comparisons are not recorded
+  int allocated(ABST<T> result) {
+    int allocated = 0;
+    ArrayDeque<ABST<T>> todo = new ArrayDeque<ABST<T>>();
+    todo.push(result);
+    while (!todo.isEmpty()) {
+      ABST<T> tree = todo.pop();
+      if (tree instanceof Node && !this.holds((Node<T>) tree)) {
+        allocated += 1;
+        todo.push(((Node<T>) tree).left);
+        todo.push(((Node<T>) tree).right);
+      }
+    }
+    return allocated;
+  }
+
+  // is the node one of the nodes of this tree?
+  // searches for its data, going both ways at any node that compares equal,
+  // since rotations can leave equal objects on either side of each other
+  boolean holds(Node<T> target) {
+    ArrayDeque<ABST<T>> todo = new ArrayDeque<ABST<T>>();
+    todo.push(this.tree);
+    while (!todo.isEmpty()) {
+      ABST<T> tree = todo.pop();
+      if (tree == target) {
+        return true;
+      }
+      if (tree instanceof Node) {
+        Node<T> node = (Node<T>) tree;
+        int comp = node.order.compare(node.data, target.data);
+        if (comp >= 0) {
+          todo.push(node.left);
+        }
+        if (comp <= 0) {
+          todo.push(node.right);
+        }
+      }
+    }
+    return false;
+  }
+
+  // how many nodes are on the path down to the leftmost object
+  int leftSpine() {
+    int depth = 0;
+    ABST<T> tree = this.tree;
+    while (tree instanceof Node) {
+      depth += 1;
+      tree = ((Node<T>) tree).left;
+    }
+    return depth;
+  }
+}
+
+class ExamplesTreeMetrics {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  // a tree of books by price that counts its comparisons
+  InstrumentedABST<Book> byPrice(TreeMetrics metrics) {
+    return new InstrumentedABST<Book>(
+        new Leaf<Book>(new CountingComparator<Book>(new BooksByPrice(), metrics)), metrics);
+  }
+
+  // runs a few operations on a small tree while recording
+  TreeMetrics recordSmall() {
+    TreeMetrics metrics = new TreeMetrics();
+    metrics.setEnabled(true);
+    // hp1 at the root, hp3 on its left and hp2 on its right
+    InstrumentedABST<Book> tree = this.byPrice(metrics).insert(this.fixtures.harryPotter1)
+        .insert(this.fixtures.harryPotter3).insert(this.fixtures.harryPotter2);
+    tree.present(this.fixtures.harryPotter2);
+    tree.present(new Book("", "", 11));
+    tree.getLeftMost();
+    tree.getRight();
+    metrics.setEnabled(false);
+    return metrics;
+  }
+
+  // tests the comparison and node counts per operation
+  boolean testCounts(Tester t) {
+    TreeMetrics metrics = this.recordSmall();
+    return t.checkExpect(metrics.getCalls(), new long[] { 3, 2, 1, 1 })
+        // inserts and lookups compare once per level
+        && t.checkExpect(metrics.getComparisons(), new long[] { 2, 4, 0, 0 })
+        // each insert copies its path; getRight copies the root
+        && t.checkExpect(metrics.getNodesAllocated(), new long[] { 5, 0, 0, 1 })
+        && t.checkExpect(metrics.getComparisonsPerCall(), new double[] { 2.0 / 3, 2.0, 0, 0 });
+  }
+
+  // tests the depth and height histograms
+  boolean testHistograms(Tester t) {
+    TreeMetrics metrics = this.recordSmall();
+    long[] depths = new long[TreeMetrics.HISTOGRAM_SIZE];
+    depths[2] = 3;
+    long[] heights = new long[TreeMetrics.HISTOGRAM_SIZE];
+    heights[1] = 1;
+    heights[2] = 3;
+    TreeMetrics cleared = this.recordSmall();
+    cleared.reset();
+    return t.checkExpect(metrics.getDepthHistogram(), depths)
+        && t.checkExpect(metrics.getHeightHistogram(), heights)
+        && t.checkExpect(cleared.getCalls(), new long[4])
+        && t.checkExpect(cleared.getHeightHistogram(), new long[TreeMetrics.HISTOGRAM_SIZE]);
+  }
+
+  // tests that nothing is recorded while instrumentation is disabled, even
+  // while other metrics are enabled
+  boolean testDisabled(Tester t) {
+    TreeMetrics metrics = new TreeMetrics();
+    TreeMetrics other = new TreeMetrics();
+    other.setEnabled(true);
+    InstrumentedABST<Book> tree = this.byPrice(metrics).insert(this.fixtures.harryPotter1)
+        .insert(this.fixtures.harryPotter2);
+    return t.checkExpect(tree.present(this.fixtures.harryPotter2), true)
+        && t.checkExpect(tree.getRight().getLeftMost(), this.fixtures.harryPotter2)
+        && t.checkExpect(tree.size(), 2)
+        && t.checkExpect(metrics.isEnabled(), false)
+        && t.checkExpect(metrics.getCalls(), new long[4])
+        && t.checkExpect(metrics.getComparisonsPerCall(), new double[4])
+        && t.checkExpect(other.getCalls(), new long[4]);
+  }
+
+  // tests that nodes are counted on balanced trees too, where the new nodes
+  // are rotated around the ones the tree shares, and with equal objects
+  boolean testRotatedNodes(Tester t) {
+    TreeMetrics metrics = new TreeMetrics();
+    metrics.setEnabled(true);
+    InstrumentedABST<Book> tree = new InstrumentedABST<Book>(new AVLLeaf<Book>(
+        new CountingComparator<Book>(new BooksByPrice(), metrics)), metrics);
+    // 10, 10 and 15 rotate left once the third is in; 9 then joins on the left
+    tree = tree.insert(this.fixtures.harryPotter1).insert(this.fixtures.harryPotter6)
+        .insert(this.fixtures.harryPotter7).insert(this.fixtures.harryPotter3);
+    tree.getRight();
+    metrics.setEnabled(false);
+    return t.checkExpect(metrics.getNodesAllocated(), new long[] { 9, 0, 0, 2 });
+  }
+
+  // tests reading the metrics over JMX
+  boolean testJMX(Tester t) throws JMException {
+    TreeMetrics metrics = this.recordSmall();
+    ObjectName name = metrics.register("examples");
+    try {
+      return t.checkExpect(ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+          "Calls"), new long[] { 3, 2, 1, 1 })
+          && t.checkExpect(ManagementFactory.getPlatformMBeanServer().getAttribute(name,
+              "Enabled"), false);
+    }
+    finally {
+      TreeMetrics.unregister(name);
+    }
+  }
+}
@@ -0,0 +1,37 @@
+//the management interface of TreeMetrics, as JMX sees it
+//each array holds one entry per operation, in the order of getOperations
+public interface TreeMetricsMBean {
+
+  // is instrumentation recording?
+  boolean isEnabled();
+
+  // turns instrumentation on or off for the trees recording into these metrics
+  void setEnabled(boolean enabled);
+
+  // the names of the recorded operations
+  String[] getOperations();
+
+  // how many times each operation ran while recording
+  long[] getCalls();
+
+  // how many comparator calls each operation made in all
+  long[] getComparisons();
+
+  // how many nodes each operation allocated in all
+  long[] getNodesAllocated();
+
+  // the average number of comparator calls per call of each operation
+  double[] getComparisonsPerCall();
+
+  // the average number of nodes allocated per call of each operation
+  double[] getNodesPerCall();
+
+  // how many lookups visited each number of nodes, from 0 up
+  long[] getDepthHistogram();
+
+  // how many times the tree was seen at each height, from 0 up
+  long[] getHeightHistogram();
+
+  // forgets everything recorded so far
+  void reset();
+}
@@ -0,0 +1,261 @@
+import tester.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+
+//a history of versions of a binary search tree
+//every insert returns a new tree that shares all but one path with the old
+//one, so keeping a version costs one reference here and the nodes on its
+//insertion paths; forgetting a version lets those nodes be collected
+class VersionHistory<T> {
+  ArrayList<ABST<T>> roots;
+
+  // a history whose version 0 is the given tree
+  VersionHistory(ABST<T> initial) {
+    this.roots = new ArrayList<ABST<T>>();
+    this.roots.add(initial);
+  }
+
+  // records the tree as the newest version and returns its number
+  int commit(ABST<T> root) {
+    this.roots.add(root);
+    return this.roots.size() - 1;
+  }
+
+  // records the latest version with the object inserted and returns its number
+  int insert(T object) {
+    return this.commit(this.latest().insert(object));
+  }
+
+  // the number of the newest version
+  int latestVersion() {
+    return this.roots.size() - 1;
+  }
+
+  // the newest version
+  ABST<T> latest() {
+    return this.roots.get(this.latestVersion());
+  }
+
+  // the tree as it was at the given version
+  ABST<T> at(int version) {
+    if (version < 0 || version >= this.roots.size() || this.roots.get(version) == null) {
+      throw new RuntimeException("No such version of the tree");
+    }
+    return this.roots.get(version);
+  }
+
+  // drops the given version, which can no longer be asked for
+  void forget(int version) {
+    this.at(version);
+    if (version == this.latestVersion()) {
+      throw new RuntimeException("No forgetting the latest version");
+    }
+    this.roots.set(version, null);
+  }
+
+  // what changed from one version to another
+  TreeDiff<T> diff(int from, int to) {
+    return this.at(from).diff(this.at(to));
+  }
+}
+
+//the objects removed from and added to a binary search tree between two versions
+//both versions are walked in order at once, a subtree at a time: when the
+//next subtrees of both are the same node they are skipped whole, otherwise
+//the taller one is opened up, so the work grows with the number of changes
+//times the height, not with the size of the trees; an object counts as kept
+//only when both versions hold that very object at the same place in order
+class TreeDiff<T> {
+  IList<T> removed;
+  IList<T> added;
+  int opened;
+
+  TreeDiff(ABST<T> older, ABST<T> newer) {
+    Comparator<T> order = newer.order;
+    DiffCursor<T> before = new DiffCursor<T>(older);
+    DiffCursor<T> after = new DiffCursor<T>(newer);
+    ArrayList<T> removed = new ArrayList<T>();
+    ArrayList<T> added = new ArrayList<T>();
+    while (!before.isEmpty() && !after.isEmpty()) {
+      if (!before.atItem() && !after.atItem()) {
+        if (before.tree() == after.tree()) {
+          before.pop();
+          after.pop();
+        }
+        else if (before.tree().height() >= after.tree().height()) {
+          before.open();
+        }
+        else {
+          after.open();
+        }
+      }
+      else if (!before.atItem()) {
+        before.open();
+      }
+      else if (!after.atItem()) {
+        after.open();
+      }
+      else {
+        T old = before.item();
+        T current = after.item();
+        int comp = order.compare(old, current);
+        if (comp == 0 && old == current) {
+          before.pop();
+          after.pop();
+        }
+        else if (comp <= 0) {
+          removed.add(old);
+          before.pop();
+        }
+        else {
+          added.add(current);
+          after.pop();
+        }
+      }
+    }
+    before.drainInto(removed);
+    after.drainInto(added);
+    this.removed = this.toList(removed);
+    this.added = this.toList(added);
+    this.opened = before.opened + after.opened;
+  }
+
+  // the objects, in the same order, as a list
+  IList<T> toList(ArrayList<T> objects) {
+    IList<T> result = new MtList<T>();
+    for (int i = objects.size() - 1; i >= 0; i -= 1) {
+      result = new ConsList<T>(objects.get(i), result);
+    }
+    return result;
+  }
+}
+
+//the unvisited part of one version during a diff, as a stack
+//each entry is a whole subtree, when its index is -1, or else the object at
+//that index of the node's bucket; leaves are never pushed
+class DiffCursor<T> {
+  ArrayDeque<ABST<T>> trees;
+  ArrayDeque<Integer> indexes;
+  int opened;
+
+  DiffCursor(ABST<T> tree) {
+    this.trees = new ArrayDeque<ABST<T>>();
+    this.indexes = new ArrayDeque<Integer>();
+    this.opened = 0;
+    this.pushTree(tree);
+  }
+
+  // pushes the tree as a whole, unless it is a leaf
+  void pushTree(ABST<T> tree) {
+    if (tree instanceof Node) {
+      this.trees.push(tree);
+      this.indexes.push(-1);
+    }
+  }
+
+  // is everything visited?
+  boolean isEmpty() {
+    return this.trees.isEmpty();
+  }
+
+  // is the next entry a single object?
+  boolean atItem() {
+    return this.indexes.peek() >= 0;
+  }
+
+  // the subtree or node of the next entry
+  ABST<T> tree() {
+    return this.trees.peek();
+  }
+
+  // the object of the next entry
+  T item() {
+    return ((Node<T>) this.trees.peek()).bucketItem(this.indexes.peek());
+  }
+
+  // drops the next entry
+  void pop() {
+    this.trees.pop();
+    this.indexes.pop();
+  }
+
+  // replaces the subtree on top by its left subtree, its objects and its right subtree
+  void open() {
+    Node<T> node = (Node<T>) this.trees.peek();
+    this.pop();
+    this.opened += 1;
+    this.pushTree(node.right);
+    for (int i = node.bucketSize() - 1; i >= 0; i -= 1) {
+      this.trees.push(node);
+      this.indexes.push(i);
+    }
+    this.pushTree(node.left);
+  }
+
+  // adds every object left, in order, to the given list
+  void drainInto(ArrayList<T> objects) {
+    while (!this.isEmpty()) {
+      if (this.atItem()) {
+        objects.add(this.item());
+        this.pop();
+      }
+      else {
+        this.open();
+      }
+    }
+  }
+}
+
+class ExamplesVersions {
+  ExamplesBST fixtures = new ExamplesBST();
+
+  Leaf<Book> byPriceAVL = this.fixtures.avlLeafPrices;
+
+  // tests diff on small trees
+  boolean testDiff(Tester t) {
+    ABST<Book> one = this.byPriceAVL.insert(this.fixtures.harryPotter1);
+    ABST<Book> three = one.insert(this.fixtures.harryPotter2).insert(this.fixtures.harryPotter3);
+    return t.checkExpect(one.diff(three).added, new ConsList<Book>(this.fixtures.harryPotter3,
+        new ConsList<Book>(this.fixtures.harryPotter2, new MtList<Book>())))
+        && t.checkExpect(one.diff(three).removed, new MtList<Book>())
+        && t.checkExpect(three.diff(three.getRight()).removed,
+            new ConsList<Book>(this.fixtures.harryPotter3, new MtList<Book>()))
+        && t.checkExpect(three.diff(three.getRight()).added, new MtList<Book>())
+        && t.checkExpect(this.byPriceAVL.diff(one).added,
+            new ConsList<Book>(this.fixtures.harryPotter1, new MtList<Book>()))
+        && t.checkExpect(three.diff(three).opened, 0);
+  }
+
+  // tests that diff skips the subtrees two large versions share
+  boolean testDiffShared(Tester t) {
+    // 100000 books priced 0, 2, 4, ... so odd prices can be added
+    ABST<Book> older = this.fixtures.everyNthPrice(2, 200000);
+    Book odd = new Book("Odd", "Author", 77777);
+    ABST<Book> newer = older.insert(odd).insert(new Book("Odd", "Author", 3)).getRight();
+    TreeDiff<Book> diff = older.diff(newer);
+    return t.checkExpect(diff.added, new ConsList<Book>(new Book("Odd", "Author", 3),
+        new ConsList<Book>(odd, new MtList<Book>())))
+        && t.checkExpect(diff.removed,
+            new ConsList<Book>(new Book("Book 0", "Author 0", 0), new MtList<Book>()))
+        && t.checkExpect(diff.opened < 200, true);
+  }
+
+  // tests the version history
+  boolean testHistory(Tester t) {
+    VersionHistory<Book> history = new VersionHistory<Book>(this.byPriceAVL);
+    int first = history.insert(this.fixtures.harryPotter1);
+    int second = history.insert(this.fixtures.harryPotter2);
+    history.commit(history.latest().insert(this.fixtures.harryPotter3));
+    history.forget(first);
+    return t.checkExpect(history.latestVersion(), 3)
+        && t.checkExpect(history.at(second).size(), 2)
+        && t.checkExpect(history.at(0).size(), 0)
+        && t.checkExpect(history.diff(second, 3).added,
+            new ConsList<Book>(this.fixtures.harryPotter3, new MtList<Book>()))
+        && t.checkException(new RuntimeException("No such version of the tree"), history,
+            "at", first)
+        && t.checkException(new RuntimeException("No forgetting the latest version"), history,
+            "forget", 3);
+  }
+}